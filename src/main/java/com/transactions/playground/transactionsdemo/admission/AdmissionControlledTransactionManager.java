@@ -0,0 +1,193 @@
+package com.transactions.playground.transactionsdemo.admission;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * PlatformTransactionManager decorator (bulkhead) letting in only as many transactions as there are connections,
+ * the rest waits in a fair queue or is rejected instead of thrashing on the connection pool.
+ *
+ * Transactions are split into workload classes by {@link #setWorkloadClassifier}, every class has its own {@link AdmissionLimiter}
+ * (so reports can't starve short writes). Only the outermost transaction of a thread takes a permit of its class, transactions
+ * joining it reuse it - otherwise a thread could wait for a permit it already holds.
+ * SUPPORTS, NOT_SUPPORTED and NEVER outside of a transaction open no transaction and take no permit, transactions started
+ * inside them are admitted as outermost ones.
+ * REQUIRES_NEW inside a transaction takes a second connection while the first one is suspended, so it takes a permit
+ * of {@link #setRequiresNewLimiter} (never of the workload classes, so it can't wait for the permit its own thread holds).
+ *
+ * Sizing rule: connection pool size >= sum of workload class limits + limit of requires new limiter
+ * (+ its limit again for every further level of REQUIRES_NEW nesting). Without requires new limiter REQUIRES_NEW reuses
+ * the outer permit, which is only safe with two connections per permit.
+ *
+ * Permits are kept in TransactionSynchronizationManager, the same way transaction managers keep their resources.
+ */
+public class AdmissionControlledTransactionManager implements PlatformTransactionManager {
+
+    public static final String READ_ONLY = "read-only";
+
+    public static final String READ_WRITE = "read-write";
+
+    private final PlatformTransactionManager targetTransactionManager;
+
+    private final AdmissionLimiter defaultLimiter;
+
+    private final Map<String, AdmissionLimiter> limiters = new ConcurrentHashMap<>();
+
+    private Function<TransactionDefinition, String> workloadClassifier =
+            definition -> definition.isReadOnly() ? READ_ONLY : READ_WRITE;
+
+    private AdmissionLimiter requiresNewLimiter;
+
+    /**
+     * @param defaultLimiter used by workload classes without their own limiter
+     */
+    public AdmissionControlledTransactionManager(PlatformTransactionManager targetTransactionManager, AdmissionLimiter defaultLimiter) {
+        this.targetTransactionManager = targetTransactionManager;
+        this.defaultLimiter = defaultLimiter;
+    }
+
+    /**
+     * by default transactions are classified as {@value #READ_ONLY} or {@value #READ_WRITE}
+     */
+    public void setWorkloadClassifier(Function<TransactionDefinition, String> workloadClassifier) {
+        this.workloadClassifier = workloadClassifier;
+    }
+
+    public void addLimiter(String workloadClass, AdmissionLimiter limiter) {
+        limiters.put(workloadClass, limiter);
+    }
+
+    public AdmissionLimiter getLimiter(String workloadClass) {
+        return limiters.getOrDefault(workloadClass, defaultLimiter);
+    }
+
+    /**
+     * limits suspended connections, i.e. REQUIRES_NEW transactions started inside another transaction
+     */
+    public void setRequiresNewLimiter(AdmissionLimiter requiresNewLimiter) {
+        this.requiresNewLimiter = requiresNewLimiter;
+    }
+
+    public AdmissionLimiter getRequiresNewLimiter() {
+        return requiresNewLimiter;
+    }
+
+    @Override
+    public TransactionStatus getTransaction(TransactionDefinition definition) throws TransactionException {
+        TransactionDefinition classified = definition != null ? definition : new DefaultTransactionDefinition();
+        Admission admission = (Admission) TransactionSynchronizationManager.getResource(this);
+        if (admission == null && !isTransactional(classified)) {
+            return targetTransactionManager.getTransaction(definition);
+        }
+        AdmissionLimiter limiter = null;
+        if (admission == null) {
+            limiter = getLimiter(workloadClassifier.apply(classified));
+        } else if (requiresNewLimiter != null && TransactionSynchronizationManager.isActualTransactionActive()
+                && classified.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW) {
+            limiter = requiresNewLimiter;
+        }
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        if (admission == null) {
+            admission = new Admission();
+            TransactionSynchronizationManager.bindResource(this, admission);
+        }
+        admission.push(limiter);
+        try {
+            return targetTransactionManager.getTransaction(definition);
+        } catch (RuntimeException | Error e) {
+            Permit permit = admission.pop();
+            if (permit.limiter != null) {
+                permit.limiter.release();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void commit(TransactionStatus status) throws TransactionException {
+        boolean committed = false;
+        try {
+            targetTransactionManager.commit(status);
+            committed = true;
+        } finally {
+            complete(committed);
+        }
+    }
+
+    @Override
+    public void rollback(TransactionStatus status) throws TransactionException {
+        try {
+            targetTransactionManager.rollback(status);
+        } finally {
+            complete(false);
+        }
+    }
+
+    private static boolean isTransactional(TransactionDefinition definition) {
+        int propagation = definition.getPropagationBehavior();
+        return propagation != TransactionDefinition.PROPAGATION_SUPPORTS
+                && propagation != TransactionDefinition.PROPAGATION_NOT_SUPPORTED
+                && propagation != TransactionDefinition.PROPAGATION_NEVER;
+    }
+
+    private void complete(boolean committed) {
+        Admission admission = (Admission) TransactionSynchronizationManager.getResource(this);
+        if (admission == null) {
+            return;
+        }
+        Permit permit = admission.pop();
+        if (permit.limiter != null) {
+            permit.limiter.release(System.nanoTime() - permit.admittedNanos, committed);
+        }
+    }
+
+    /**
+     * transaction of this thread in progress, null limiter if it didn't take a permit (joined the outer transaction)
+     */
+    private static class Permit {
+
+        private final AdmissionLimiter limiter;
+
+        private final long admittedNanos = System.nanoTime();
+
+        Permit(AdmissionLimiter limiter) {
+            this.limiter = limiter;
+        }
+    }
+
+    /**
+     * transactions in progress in this thread, completed in reverse order
+     */
+    private class Admission extends ResourceHolderSupport {
+
+        private final Deque<Permit> permits = new ArrayDeque<>();
+
+        void push(AdmissionLimiter limiter) {
+            permits.push(new Permit(limiter));
+        }
+
+        /**
+         * admission is unbound when the outermost transaction completes
+         */
+        Permit pop() {
+            Permit permit = permits.pop();
+            if (permits.isEmpty()) {
+                TransactionSynchronizationManager.unbindResource(AdmissionControlledTransactionManager.this);
+            }
+            return permit;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.transactions.playground.transactionsdemo.admission;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit of one workload class:
+ *  - at most {@link #getLimit()} permits are in flight, others wait in FIFO order (released permit is handed over to the first waiter)
+ *  - waiting is bounded by {@link #getMaxWaitMillis()}, a full queue rejects right away
+ *  - AIMD limit (when {@link #getTargetHoldMillis()} is set): +1 per limit of fast releases while saturated,
+ *    multiplied by {@link #getBackoffRatio()} when a permit was held too long or the transaction failed.
+ *    The signal is the time permit was held (admission to commit / rollback), not only the commit itself.
+ *    The limit backs off at most once per round trip - permits admitted before the last backoff don't cut it again
+ */
+public class AdmissionLimiter {
+
+    private final String name;
+
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+    private int limit;
+
+    private int inFlight;
+
+    /**
+     * fast releases since the last increase of the limit
+     */
+    private int fastReleases;
+
+    private boolean backedOff;
+
+    private long lastBackoffNanos;
+
+    private final LongAdder admissions = new LongAdder();
+
+    private final LongAdder rejections = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    @Getter
+    @Setter
+    private int maxQueueSize = 100;
+
+    @Getter
+    @Setter
+    private long maxWaitMillis = 1000;
+
+    /**
+     * permit held longer decreases the limit, 0 keeps the limit fixed
+     */
+    @Getter
+    @Setter
+    private long targetHoldMillis;
+
+    @Getter
+    @Setter
+    private int minLimit = 1;
+
+    @Getter
+    @Setter
+    private int maxLimit;
+
+    @Getter
+    @Setter
+    private double backoffRatio = 0.9;
+
+    /**
+     * @param limit initial concurrency, the upper bound of adaptive limit as well (should not exceed connection pool size)
+     */
+    public AdmissionLimiter(String name, int limit) {
+        this.name = name;
+        this.limit = limit;
+        this.maxLimit = limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * blocks until permit is available
+     *
+     * @throws TransactionAdmissionException if the queue is full, the wait timed out or the thread was interrupted
+     */
+    public void acquire() {
+        Waiter waiter;
+        synchronized (this) {
+            if (queue.isEmpty() && inFlight < limit) {
+                inFlight++;
+                admissions.increment();
+                return;
+            }
+            if (queue.size() >= maxQueueSize) {
+                rejections.increment();
+                throw new TransactionAdmissionException("Transaction rejected, " + queue.size() + " already waiting in " + name);
+            }
+            waiter = new Waiter();
+            queue.addLast(waiter);
+        }
+
+        boolean interrupted = false;
+        try {
+            waiter.latch.await(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        synchronized (this) {
+            if (waiter.granted) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            queue.remove(waiter);
+            timeouts.increment();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAdmissionException("Interrupted while waiting for admission to " + name);
+        }
+        throw new TransactionAdmissionException("Transaction not admitted to " + name + " within " + maxWaitMillis + " ms");
+    }
+
+    /**
+     * returns the permit and adapts the limit to the time it was held
+     */
+    public void release(long heldNanos, boolean successful) {
+        synchronized (this) {
+            if (targetHoldMillis > 0) {
+                adaptLimit(heldNanos, successful);
+            }
+            inFlight--;
+            handOver();
+        }
+    }
+
+    /**
+     * returns the permit without affecting the limit (transaction was not started after all)
+     */
+    public void release() {
+        synchronized (this) {
+            inFlight--;
+            handOver();
+        }
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getAdmissions() {
+        return admissions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    private void adaptLimit(long heldNanos, boolean successful) {
+        if (!successful || heldNanos > TimeUnit.MILLISECONDS.toNanos(targetHoldMillis)) {
+            long now = System.nanoTime();
+            if (!backedOff || now - heldNanos - lastBackoffNanos >= 0) {
+                //admitted after the last backoff, so it saw the reduced limit and is still slow
+                limit = Math.max(minLimit, (int) (limit * backoffRatio));
+                backedOff = true;
+                lastBackoffNanos = now;
+            }
+            fastReleases = 0;
+            return;
+        }
+        //grow only if the limit is what actually holds transactions back
+        if (inFlight >= limit || !queue.isEmpty()) {
+            if (++fastReleases >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+                fastReleases = 0;
+            }
+        }
+    }
+
+    private void handOver() {
+        while (inFlight < limit && !queue.isEmpty()) {
+            Waiter waiter = queue.pollFirst();
+            waiter.granted = true;
+            inFlight++;
+            admissions.increment();
+            waiter.latch.countDown();
+        }
+    }
+
+    private static class Waiter {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        /**
+         * guarded by the limiter
+         */
+        private boolean granted;
+    }
+}
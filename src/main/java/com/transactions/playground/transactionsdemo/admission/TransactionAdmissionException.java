@@ -0,0 +1,13 @@
+package com.transactions.playground.transactionsdemo.admission;
+
+import org.springframework.transaction.CannotCreateTransactionException;
+
+/**
+ * transaction was not admitted - the queue of its workload class was full or the wait timed out
+ */
+public class TransactionAdmissionException extends CannotCreateTransactionException {
+
+    public TransactionAdmissionException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,93 @@
+package com.transactions.playground.transactionsdemo.changefeed;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.repo.EventRepo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * EventRepo which lets the change feed know about events being written - their ids are held back from consumers
+ * until the transaction writing them completes, so that an event committed later can't be skipped.
+ */
+public class ChangeTrackingEventRepo implements EventRepo {
+
+    private final EventRepo repository;
+
+    private final EventChangeFeed changeFeed;
+
+    public ChangeTrackingEventRepo(EventRepo repository, EventChangeFeed changeFeed) {
+        this.repository = repository;
+        this.changeFeed = changeFeed;
+    }
+
+    @Override
+    public <S extends Event> S save(S event) {
+        return write(Collections.singletonList(event), () -> repository.save(event));
+    }
+
+    @Override
+    public List<Event> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    public List<Event> findAfter(long afterId, int limit) {
+        return repository.findAfter(afterId, limit);
+    }
+
+    @Override
+    public void insertAll(List<Event> events) {
+        write(events, () -> {
+            repository.insertAll(events);
+            return null;
+        });
+    }
+
+    @Override
+    public void upsertAll(List<Event> events) {
+        write(events, () -> {
+            repository.upsertAll(events);
+            return null;
+        });
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return repository.existsById(id);
+    }
+
+    @Override
+    public long countByDescriptionPrefix(String prefix) {
+        return repository.countByDescriptionPrefix(prefix);
+    }
+
+    @Override
+    public Optional<Long> findMinId() {
+        return repository.findMinId();
+    }
+
+    @Override
+    public Optional<Long> findMaxId() {
+        return repository.findMaxId();
+    }
+
+    private <T> T write(List<? extends Event> events, Supplier<T> write) {
+        List<Long> ids = new ArrayList<>();
+        events.forEach(event -> ids.add(event.getId()));
+        changeFeed.beforeInsert(ids);
+        try {
+            return write.get();
+        } finally {
+            changeFeed.afterInsert(ids);
+        }
+    }
+}
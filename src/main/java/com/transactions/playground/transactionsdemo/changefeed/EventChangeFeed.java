@@ -0,0 +1,237 @@
+package com.transactions.playground.transactionsdemo.changefeed;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental feed of inserted events - consumers get only events after their offset instead of calling findAll again and again.
+ *
+ * Events are read by id (primary key range), so the cost depends on the delta, not on the table size:
+ *  - every consumer has its offset (id of the last event processed) persisted in event_consumer_offset table
+ *    (see {@link com.transactions.playground.transactionsdemo.model.ConsumerOffset})
+ *  - ids are taken by {@link #nextId} and held by the transaction until it completes, nothing above the lowest of them
+ *    (nor above the highest id taken or committed when the watermark is read) is returned - transaction inserting a lower id may commit later
+ *  - {@link #poll} waits for the next commit instead of busy polling
+ *
+ * Ids assigned by the caller are held only from the insert through {@link ChangeTrackingEventRepo} on - an id taken
+ * before (e.g. from a database sequence) and inserted after a higher one is committed may be skipped.
+ * Ids are taken in memory, writers taking ids have to share one feed. Updates are not part of the feed.
+ * Events inserted without ChangeTrackingEventRepo are visible once committed, but are not protected against out of order commits.
+ * {@link #nextId} follows the highest committed id, so it doesn't collide with them once they are committed
+ * (an id inserted around the feed and not committed yet may still be taken, one of the inserts then fails on the primary key).
+ */
+public class EventChangeFeed {
+
+    static final long BEGINNING = Long.MIN_VALUE;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * id -> number of transactions inserting it
+     */
+    private final ConcurrentSkipListMap<Long, Integer> inFlightIds = new ConcurrentSkipListMap<>();
+
+    /**
+     * guards taking ids and reading the watermark, an id is never taken but not yet in flight for a poller
+     */
+    private final Object idLock = new Object();
+
+    /**
+     * the highest id taken, inserted through the feed or seen committed in event table, null until the first {@link #nextId}
+     */
+    private Long lastId;
+
+    /**
+     * guards commits, pollers wait on it
+     */
+    private final Object commitSignal = new Object();
+
+    private long commits;
+
+    public EventChangeFeed(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * returns events after consumer's offset, waits for a commit up to timeout if there are none yet.
+     * Offset is not moved, see {@link #commitOffset}
+     *
+     * @return events in id order, empty if nothing was committed within timeout
+     */
+    public List<Event> poll(String consumer, int maxEvents, long timeout, TimeUnit unit) throws InterruptedException {
+        long offset = getOffset(consumer);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long commitsBefore;
+            synchronized (commitSignal) {
+                commitsBefore = commits;
+            }
+            List<Event> events = findAfter(offset, maxEvents);
+            if (!events.isEmpty()) {
+                return events;
+            }
+            synchronized (commitSignal) {
+                while (commits == commitsBefore) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return events;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(commitSignal, remaining);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return id of the last event processed by consumer, {@value #BEGINNING} if it has not processed anything yet
+     */
+    public long getOffset(String consumer) {
+        List<Long> offset = jdbcTemplate.queryForList("select last_id from event_consumer_offset where consumer = ?", Long.class, consumer);
+        return offset.isEmpty() ? BEGINNING : offset.get(0);
+    }
+
+    public void commitOffset(String consumer, long lastId) {
+        jdbcTemplate.update("merge into event_consumer_offset(consumer, last_id) key(consumer) values(?, ?)", consumer, lastId);
+    }
+
+    /**
+     * takes id of a new event, it is held back from consumers until current transaction completes (whether it is inserted or not).
+     * The id follows the highest one in event table, including events inserted without the feed
+     */
+    public long nextId() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Id is held until the transaction completes, no transaction synchronization is active");
+        }
+        InFlightIds transactionIds = transactionIds();
+        long id;
+        synchronized (idLock) {
+            refreshLastId();
+            id = ++lastId;
+            inFlightIds.merge(id, 1, Integer::sum);
+        }
+        transactionIds.ids.add(id);
+        return id;
+    }
+
+    /**
+     * @return the highest id all events up to which are committed (as far as tracked inserts go)
+     */
+    public long getSafeWatermark() {
+        synchronized (idLock) {
+            long watermark = inFlightIds.isEmpty() ? Long.MAX_VALUE : inFlightIds.firstKey() - 1;
+            if (lastId == null) {
+                return watermark;
+            }
+            //ids taken after the watermark is read are higher, events committed without the feed up to now stay visible
+            refreshLastId();
+            return Math.min(watermark, lastId);
+        }
+    }
+
+    /**
+     * guarded by idLock
+     */
+    private void refreshLastId() {
+        long committedMax = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from event", Long.class);
+        lastId = lastId == null ? committedMax : Math.max(lastId, committedMax);
+    }
+
+    /**
+     * ids inserted by current transaction are held back until it completes, ids it has taken by {@link #nextId} already are
+     */
+    void beforeInsert(Collection<Long> ids) {
+        InFlightIds transactionIds = TransactionSynchronizationManager.isSynchronizationActive() ? transactionIds() : null;
+        synchronized (idLock) {
+            for (Long id : ids) {
+                if (transactionIds == null || transactionIds.ids.add(id)) {
+                    inFlightIds.merge(id, 1, Integer::sum);
+                }
+                if (lastId != null && id > lastId) {
+                    lastId = id;
+                }
+            }
+        }
+    }
+
+    /**
+     * done right after insert without transaction, on completion of the transaction otherwise
+     */
+    void afterInsert(Collection<Long> ids) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        completed(ids);
+    }
+
+    private void completed(Collection<Long> ids) {
+        ids.forEach(id -> inFlightIds.computeIfPresent(id, (key, transactions) -> transactions == 1 ? null : transactions - 1));
+        synchronized (commitSignal) {
+            commits++;
+            commitSignal.notifyAll();
+        }
+    }
+
+    private InFlightIds transactionIds() {
+        InFlightIds transactionIds = (InFlightIds) TransactionSynchronizationManager.getResource(this);
+        if (transactionIds == null) {
+            transactionIds = new InFlightIds();
+            TransactionSynchronizationManager.bindResource(this, transactionIds);
+            TransactionSynchronizationManager.registerSynchronization(new InFlightIdsSynchronization(transactionIds));
+        }
+        return transactionIds;
+    }
+
+    private List<Event> findAfter(long offset, int maxEvents) {
+        long watermark = getSafeWatermark();
+        if (watermark <= offset) {
+            return new ArrayList<>();
+        }
+        return jdbcTemplate.query("select id, description from event where id > ? and id <= ? order by id limit ?",
+                eventMapper(), offset, watermark, maxEvents);
+    }
+
+    private static RowMapper<Event> eventMapper() {
+        return (resultSet, i) -> {
+            Event event = new Event(resultSet.getLong("id"), resultSet.getString("description"));
+            event.markNotNew();
+            return event;
+        };
+    }
+
+    private static class InFlightIds extends ResourceHolderSupport {
+
+        private final Set<Long> ids = new HashSet<>();
+    }
+
+    private class InFlightIdsSynchronization extends ResourceHolderSynchronization<InFlightIds, Object> {
+
+        InFlightIdsSynchronization(InFlightIds ids) {
+            super(ids, EventChangeFeed.this);
+        }
+
+        /**
+         * ids are held back until the changes are committed (or rolled back), not only until commit starts
+         */
+        @Override
+        protected boolean shouldReleaseBeforeCompletion() {
+            return false;
+        }
+
+        @Override
+        protected void releaseResource(InFlightIds ids, Object key) {
+            completed(ids.ids);
+        }
+    }
+}
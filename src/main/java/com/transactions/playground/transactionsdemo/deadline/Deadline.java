@@ -0,0 +1,55 @@
+package com.transactions.playground.transactionsdemo.deadline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of an operation (e.g. a request) bound to current thread, enforced on statements by {@link DeadlineDataSource}.
+ *
+ * Budgets can be nested, inner one never extends the outer one.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Long> currentDeadline = new ThreadLocal<>();
+
+    private Deadline() {
+    }
+
+    /**
+     * binds deadline in given time from now until the returned binding is closed, the previous one is restored then
+     */
+    public static Binding within(long timeout, TimeUnit unit) {
+        Long previous = currentDeadline.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (previous != null && previous - deadline < 0) {
+            deadline = previous;
+        }
+        currentDeadline.set(deadline);
+        return new Binding(previous);
+    }
+
+    /**
+     * @return nanoseconds left (negative if the deadline has passed), null if there is no deadline
+     */
+    public static Long remainingNanos() {
+        Long deadline = currentDeadline.get();
+        return deadline == null ? null : deadline - System.nanoTime();
+    }
+
+    public static class Binding implements AutoCloseable {
+
+        private final Long previousDeadline;
+
+        private Binding(Long previousDeadline) {
+            this.previousDeadline = previousDeadline;
+        }
+
+        @Override
+        public void close() {
+            if (previousDeadline == null) {
+                currentDeadline.remove();
+            } else {
+                currentDeadline.set(previousDeadline);
+            }
+        }
+    }
+}
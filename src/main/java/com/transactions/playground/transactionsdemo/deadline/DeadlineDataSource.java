@@ -0,0 +1,246 @@
+package com.transactions.playground.transactionsdemo.deadline;
+
+import com.transactions.playground.transactionsdemo.jdbc.ConnectionProxyHandler;
+import com.transactions.playground.transactionsdemo.jdbc.JdbcProxyHandler;
+import com.transactions.playground.transactionsdemo.jdbc.StatementProxyHandler;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DataSource proxy giving every statement the time which is left, no matter who executes it (JdbcTemplate, hibernate Session or JPA EntityManager).
+ *
+ * Budget of a statement is the shortest of:
+ *  - time to live of the transaction (timeout of any resource holder bound by transaction manager)
+ *  - {@link Deadline} bound to current thread
+ *  - default of the operation when there is neither: {@link #getDefaultQueryTimeoutMillis()} for executeQuery,
+ *    {@link #getDefaultUpdateTimeoutMillis()} for executeUpdate, {@link #getDefaultBatchTimeoutMillis()} for executeBatch,
+ *    {@link #getDefaultTimeoutMillis()} for plain execute and operations without their own default
+ *
+ * Statement gets it as query timeout (JDBC has only whole seconds) and is cancelled exactly when the budget runs out.
+ * With no time left the statement is not executed at all, SQLTimeoutException is thrown (translated to QueryTimeoutException as usual).
+ * The transaction is left alone, its transaction manager decides about the rollback when the exception reaches it.
+ */
+@Slf4j
+public class DeadlineDataSource extends DelegatingDataSource implements DisposableBean {
+
+    private static final String PROXY_NAME = "Deadline proxy";
+
+    private final ScheduledThreadPoolExecutor canceller = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "statement-canceller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder cancelledStatements = new LongAdder();
+
+    private final LongAdder rejectedStatements = new LongAdder();
+
+    /**
+     * budget of statements executed without transaction timeout and deadline, 0 means no limit
+     */
+    @Getter
+    @Setter
+    private long defaultTimeoutMillis;
+
+    /**
+     * budget of executeQuery without transaction timeout and deadline, 0 falls back to {@link #getDefaultTimeoutMillis()}
+     */
+    @Getter
+    @Setter
+    private long defaultQueryTimeoutMillis;
+
+    /**
+     * budget of executeUpdate without transaction timeout and deadline, 0 falls back to {@link #getDefaultTimeoutMillis()}
+     */
+    @Getter
+    @Setter
+    private long defaultUpdateTimeoutMillis;
+
+    /**
+     * budget of executeBatch without transaction timeout and deadline, 0 falls back to {@link #getDefaultTimeoutMillis()}
+     */
+    @Getter
+    @Setter
+    private long defaultBatchTimeoutMillis;
+
+    public DeadlineDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+        canceller.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    /**
+     * @return statements cancelled when their deadline passed
+     */
+    public long getCancelledStatements() {
+        return cancelledStatements.sum();
+    }
+
+    /**
+     * @return statements not executed at all since there was no time left
+     */
+    public long getRejectedStatements() {
+        return rejectedStatements.sum();
+    }
+
+    @Override
+    public void destroy() {
+        canceller.shutdownNow();
+    }
+
+    /**
+     * @return nanoseconds left for the statement, null if it has no limit
+     */
+    private Long remainingNanos(String operation) {
+        Long remaining = Deadline.remainingNanos();
+        for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+            if (resource instanceof ResourceHolderSupport && ((ResourceHolderSupport) resource).hasTimeout()) {
+                long transactionNanos = transactionRemainingNanos((ResourceHolderSupport) resource);
+                remaining = remaining == null ? transactionNanos : Math.min(remaining, transactionNanos);
+            }
+        }
+        long defaultMillis = defaultTimeoutMillis(operation);
+        if (remaining == null && defaultMillis > 0) {
+            remaining = TimeUnit.MILLISECONDS.toNanos(defaultMillis);
+        }
+        return remaining;
+    }
+
+    private long defaultTimeoutMillis(String operation) {
+        long operationMillis;
+        switch (operation) {
+            case "executeQuery":
+                operationMillis = defaultQueryTimeoutMillis;
+                break;
+            case "executeUpdate":
+            case "executeLargeUpdate":
+                operationMillis = defaultUpdateTimeoutMillis;
+                break;
+            case "executeBatch":
+            case "executeLargeBatch":
+                operationMillis = defaultBatchTimeoutMillis;
+                break;
+            default:
+                operationMillis = 0;
+        }
+        return operationMillis > 0 ? operationMillis : defaultTimeoutMillis;
+    }
+
+    /**
+     * unlike getTimeToLiveInMillis neither throws TransactionTimedOutException nor marks the resource rollback only
+     * when the transaction is over time, the statement is rejected with SQLTimeoutException as with passed {@link Deadline}
+     */
+    private static long transactionRemainingNanos(ResourceHolderSupport resource) {
+        return TimeUnit.MILLISECONDS.toNanos(resource.getDeadline().getTime() - System.currentTimeMillis());
+    }
+
+    private Connection wrap(Connection connection) {
+        return JdbcProxyHandler.proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    private class ConnectionHandler extends ConnectionProxyHandler {
+
+        ConnectionHandler(Connection target) {
+            super(target, PROXY_NAME);
+        }
+
+        @Override
+        protected Statement wrapStatement(Class<? extends Statement> type, Statement statement, Connection connection, String sql) {
+            return JdbcProxyHandler.proxy(type, new StatementHandler(statement, connection));
+        }
+    }
+
+    private class StatementHandler extends StatementProxyHandler {
+
+        StatementHandler(Statement target, Connection connection) {
+            super(target, connection, PROXY_NAME);
+        }
+
+        @Override
+        protected Object invokeStatement(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().startsWith("execute")) {
+                return invokeTarget(method, args);
+            }
+            Long remaining = remainingNanos(method.getName());
+            if (remaining == null) {
+                return invokeTarget(method, args);
+            }
+            if (remaining <= 0) {
+                rejectedStatements.increment();
+                throw new SQLTimeoutException("Deadline exceeded " + TimeUnit.NANOSECONDS.toMillis(-remaining) + " ms ago, statement not executed");
+            }
+
+            Statement statement = (Statement) target;
+            int seconds = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1));
+            //statement may be reused (cached prepared statement, batch of hibernate), the budget applies to this execution only
+            int queryTimeout = statement.getQueryTimeout();
+            boolean shortened = queryTimeout == 0 || seconds < queryTimeout;
+            if (shortened) {
+                statement.setQueryTimeout(seconds);
+            }
+            Execution execution = new Execution();
+            ScheduledFuture<?> cancellation = canceller.schedule(() -> cancel(statement, execution), remaining, TimeUnit.NANOSECONDS);
+            try {
+                return invokeTarget(method, args);
+            } finally {
+                //waits for a cancel task already running, it must not hit the next execution of the statement
+                execution.finish();
+                cancellation.cancel(false);
+                if (shortened) {
+                    statement.setQueryTimeout(queryTimeout);
+                }
+            }
+        }
+
+        private void cancel(Statement statement, Execution execution) {
+            synchronized (execution) {
+                if (execution.finished) {
+                    return;
+                }
+                try {
+                    statement.cancel();
+                    cancelledStatements.increment();
+                } catch (SQLException e) {
+                    log.debug("Cancelling statement failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * one execution of a statement, cancelled only while it is running
+     */
+    private static class Execution {
+
+        private boolean finished;
+
+        synchronized void finish() {
+            finished = true;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.transactions.playground.transactionsdemo.jdbc;
+
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Connection proxy wrapping every statement it creates, see {@link StatementProxyHandler}.
+ */
+public abstract class ConnectionProxyHandler extends JdbcProxyHandler {
+
+    protected ConnectionProxyHandler(Connection target, String name) {
+        super(target, name);
+    }
+
+    @Override
+    protected Object doInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result = invokeTarget(method, args);
+        switch (method.getName()) {
+            case "createStatement":
+                return wrapStatement(Statement.class, (Statement) result, (Connection) proxy, null);
+            case "prepareStatement":
+                return wrapStatement(PreparedStatement.class, (Statement) result, (Connection) proxy, (String) args[0]);
+            case "prepareCall":
+                return wrapStatement(CallableStatement.class, (Statement) result, (Connection) proxy, (String) args[0]);
+            default:
+                return result;
+        }
+    }
+
+    /**
+     * @param type       interface the proxy has to implement
+     * @param connection proxy the statement has to return from getConnection
+     * @param sql        statement being prepared, null for plain Statement
+     */
+    protected abstract Statement wrapStatement(Class<? extends Statement> type, Statement statement, Connection connection, String sql);
+}
@@ -0,0 +1,68 @@
+package com.transactions.playground.transactionsdemo.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Base of JDK proxies wrapping JDBC objects (connections, statements, result sets) used by the DataSource proxies.
+ *
+ * Handles the methods every wrapper has to get right the same way:
+ *  - equals and hashCode by identity of the proxy, toString naming the proxy and its target
+ *  - unwrap and isWrapperFor see the proxy itself, then the target
+ *
+ * Everything else goes to {@link #doInvoke}.
+ */
+public abstract class JdbcProxyHandler implements InvocationHandler {
+
+    protected final Object target;
+
+    private final String name;
+
+    /**
+     * @param name prefix of toString, e.g. "Profiling proxy"
+     */
+    protected JdbcProxyHandler(Object target, String name) {
+        this.target = target;
+        this.name = name;
+    }
+
+    /**
+     * @return proxy of given JDBC interface calling the handler
+     */
+    public static <T> T proxy(Class<T> type, JdbcProxyHandler handler) {
+        return type.cast(Proxy.newProxyInstance(JdbcProxyHandler.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return name + " for " + target;
+            case "unwrap":
+                return ((Class<?>) args[0]).isInstance(proxy) ? proxy : invokeTarget(method, args);
+            case "isWrapperFor":
+                return ((Class<?>) args[0]).isInstance(proxy) || (Boolean) invokeTarget(method, args);
+            default:
+                return doInvoke(proxy, method, args);
+        }
+    }
+
+    protected abstract Object doInvoke(Object proxy, Method method, Object[] args) throws Throwable;
+
+    /**
+     * calls the method on target, rethrowing what the target threw
+     */
+    protected Object invokeTarget(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.transactions.playground.transactionsdemo.jdbc;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * Statement proxy returning the connection proxy it was created by, so the raw connection never leaks out.
+ */
+public abstract class StatementProxyHandler extends JdbcProxyHandler {
+
+    private final Connection connection;
+
+    protected StatementProxyHandler(Statement target, Connection connection, String name) {
+        super(target, name);
+        this.connection = connection;
+    }
+
+    @Override
+    protected Object doInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("getConnection".equals(method.getName())) {
+            return connection;
+        }
+        return invokeStatement(proxy, method, args);
+    }
+
+    protected abstract Object invokeStatement(Object proxy, Method method, Object[] args) throws Throwable;
+}
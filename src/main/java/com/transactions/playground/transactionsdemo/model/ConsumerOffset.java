@@ -0,0 +1,31 @@
+package com.transactions.playground.transactionsdemo.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Offset of a change feed consumer - id of the last event it has processed.
+ * Read and written by EventChangeFeed with plain SQL, mapped to get the table created with the schema.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "event_consumer_offset")
+public class ConsumerOffset {
+
+    @Id
+    private String consumer;
+
+    @Column(name = "last_id", nullable = false)
+    private long lastId;
+
+    public ConsumerOffset(String consumer, long lastId) {
+        this.consumer = consumer;
+        this.lastId = lastId;
+    }
+}
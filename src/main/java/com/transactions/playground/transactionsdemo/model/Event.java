@@ -1,23 +1,45 @@
 package com.transactions.playground.transactionsdemo.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.springframework.data.domain.Persistable;
 
 import javax.persistence.*;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @ToString
 @Entity
-@Table(name="event")
-public class Event {
+@Table(name="event", indexes = @Index(name = "event_description_idx", columnList = "description"))
+public class Event implements Persistable<Long> {
 
+    /**
+     * assigned by the caller
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     private String description;
+
+    /**
+     * Id is always set, so Spring Data can't recognize new entity by null id and would merge it (SELECT before INSERT).
+     * Event is new until it is persisted or loaded.
+     */
+    @Transient
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean isNew = true;
+
+    public Event(Long id, String description) {
+        this.id = id;
+        this.description = description;
+    }
+
+    @PostLoad
+    @PostPersist
+    public void markNotNew() {
+        this.isNew = false;
+    }
 }
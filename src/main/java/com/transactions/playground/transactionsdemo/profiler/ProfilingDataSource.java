@@ -0,0 +1,139 @@
+package com.transactions.playground.transactionsdemo.profiler;
+
+import com.transactions.playground.transactionsdemo.jdbc.ConnectionProxyHandler;
+import com.transactions.playground.transactionsdemo.jdbc.JdbcProxyHandler;
+import com.transactions.playground.transactionsdemo.jdbc.StatementProxyHandler;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * DataSource proxy measuring every statement, no matter who executes it (JdbcTemplate, hibernate Session or JPA EntityManager).
+ *
+ * Connections, statements and result sets are wrapped by JDK proxies:
+ *  - statements are normalized once when prepared, execute* calls are timed
+ *  - result sets count returned rows
+ */
+public class ProfilingDataSource extends DelegatingDataSource {
+
+    private static final String PROXY_NAME = "Profiling proxy";
+
+    private final SqlProfiler profiler;
+
+    public ProfilingDataSource(DataSource targetDataSource, SqlProfiler profiler) {
+        super(targetDataSource);
+        this.profiler = profiler;
+    }
+
+    public SqlProfiler getProfiler() {
+        return profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        return JdbcProxyHandler.proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    private class ConnectionHandler extends ConnectionProxyHandler {
+
+        ConnectionHandler(Connection target) {
+            super(target, PROXY_NAME);
+        }
+
+        @Override
+        protected Statement wrapStatement(Class<? extends Statement> type, Statement statement, Connection connection, String sql) {
+            StatementStatistics statistics = sql == null ? null : profiler.statisticsFor(SqlNormalizer.normalize(sql));
+            return JdbcProxyHandler.proxy(type, new StatementHandler(statement, connection, statistics));
+        }
+    }
+
+    private class StatementHandler extends StatementProxyHandler {
+
+        /**
+         * statement being prepared, or the last one executed for plain Statement
+         */
+        private StatementStatistics statistics;
+
+        StatementHandler(Statement target, Connection connection, StatementStatistics statistics) {
+            super(target, connection, PROXY_NAME);
+            this.statistics = statistics;
+        }
+
+        @Override
+        protected Object invokeStatement(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("addBatch".equals(name) && args != null && args.length > 0) {
+                statistics = profiler.statisticsFor(SqlNormalizer.normalize((String) args[0]));
+            }
+            if (!name.startsWith("execute")) {
+                Object result = invokeTarget(method, args);
+                return "getResultSet".equals(name) ? wrapResultSet((ResultSet) result, (Statement) proxy) : result;
+            }
+
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                statistics = profiler.statisticsFor(SqlNormalizer.normalize((String) args[0]));
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invokeTarget(method, args);
+            } catch (Throwable e) {
+                record(System.nanoTime() - start, true);
+                throw e;
+            }
+            record(System.nanoTime() - start, false);
+            return result instanceof ResultSet ? wrapResultSet((ResultSet) result, (Statement) proxy) : result;
+        }
+
+        private void record(long nanos, boolean failed) {
+            if (statistics != null) {
+                profiler.recordExecution(statistics, nanos, failed);
+            }
+        }
+
+        private ResultSet wrapResultSet(ResultSet resultSet, Statement statement) {
+            if (resultSet == null || statistics == null) {
+                return resultSet;
+            }
+            return JdbcProxyHandler.proxy(ResultSet.class, new ResultSetHandler(resultSet, statement, statistics));
+        }
+    }
+
+    private static class ResultSetHandler extends JdbcProxyHandler {
+
+        private final Statement statement;
+        private final StatementStatistics statistics;
+
+        ResultSetHandler(ResultSet target, Statement statement, StatementStatistics statistics) {
+            super(target, PROXY_NAME);
+            this.statement = statement;
+            this.statistics = statistics;
+        }
+
+        @Override
+        protected Object doInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("getStatement".equals(method.getName())) {
+                return statement;
+            }
+            Object result = invokeTarget(method, args);
+            if (Boolean.TRUE.equals(result) && "next".equals(method.getName())) {
+                statistics.recordRow();
+            }
+            return result;
+        }
+    }
+}
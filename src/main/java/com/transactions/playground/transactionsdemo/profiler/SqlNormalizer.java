@@ -0,0 +1,57 @@
+package com.transactions.playground.transactionsdemo.profiler;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Turns a raw SQL string into a key shared by all executions of "the same" statement:
+ * literals become '?', IN lists collapse to a single '?', whitespace and case are normalized.
+ *
+ * Hibernate and JdbcTemplate prepare the same few strings over and over, so results are cached.
+ * The cache is LRU bounded - statements with inlined literals seen once don't keep out the ones prepared all the time.
+ */
+final class SqlNormalizer {
+
+    private static final int MAX_CACHED = 2048;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * sql -> normalized in access order, guarded by itself
+     */
+    private static final Map<String, String> CACHE = new LinkedHashMap<String, String>(MAX_CACHED, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private SqlNormalizer() {
+    }
+
+    static String normalize(String sql) {
+        String normalized;
+        synchronized (CACHE) {
+            normalized = CACHE.get(sql);
+        }
+        if (normalized == null) {
+            normalized = doNormalize(sql);
+            synchronized (CACHE) {
+                CACHE.put(sql, normalized);
+            }
+        }
+        return normalized;
+    }
+
+    private static String doNormalize(String sql) {
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        result = WHITESPACE.matcher(result).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+        return IN_LIST.matcher(result).replaceAll("in (?)");
+    }
+}
@@ -0,0 +1,156 @@
+package com.transactions.playground.transactionsdemo.profiler;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics of statements executed through {@link ProfilingDataSource}, which is much cheaper than hibernate.show_sql:
+ *  - per normalized SQL: executions, latency histogram, rows returned
+ *  - slow queries are logged asynchronously (sampled, bounded queue - logs are dropped rather than slowing down the caller)
+ *  - N+1 detection: the same SELECT executed many times in one transaction
+ *
+ * Per transaction counters are kept in TransactionSynchronizationManager, the same way transaction managers keep their resources.
+ */
+@Slf4j
+public class SqlProfiler implements DisposableBean {
+
+    static final String OTHER_STATEMENTS = "<other>";
+
+    private final ConcurrentMap<String, StatementStatistics> statistics = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor slowQueryLogger = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1024),
+            runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-logger");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private final LongAdder slowQueries = new LongAdder();
+
+    /**
+     * statements taking longer are reported as slow
+     */
+    @Getter
+    @Setter
+    private long slowQueryThresholdMillis = 500;
+
+    /**
+     * fraction (0..1) of slow statements which are actually logged
+     */
+    @Getter
+    @Setter
+    private double slowQuerySampleRate = 0.1;
+
+    /**
+     * number of executions of the same SELECT in one transaction reported as N+1
+     */
+    @Getter
+    @Setter
+    private int nPlusOneThreshold = 10;
+
+    /**
+     * upper limit of distinct statements, anything above is counted as {@value #OTHER_STATEMENTS}
+     */
+    @Getter
+    @Setter
+    private int maxStatements = 1000;
+
+    /**
+     * @return statistics of given statement (raw or normalized SQL), null if it has not been executed
+     */
+    public StatementStatistics getStatistics(String sql) {
+        return statistics.get(SqlNormalizer.normalize(sql));
+    }
+
+    public Collection<StatementStatistics> getStatistics() {
+        return new ArrayList<>(statistics.values());
+    }
+
+    /**
+     * @return number of statements exceeding the slow query threshold (logged or not)
+     */
+    public long getSlowQueries() {
+        return slowQueries.sum();
+    }
+
+    public void reset() {
+        statistics.clear();
+        slowQueries.reset();
+    }
+
+    StatementStatistics statisticsFor(String normalizedSql) {
+        StatementStatistics result = statistics.get(normalizedSql);
+        if (result != null) {
+            return result;
+        }
+        String key = statistics.size() < maxStatements ? normalizedSql : OTHER_STATEMENTS;
+        return statistics.computeIfAbsent(key, StatementStatistics::new);
+    }
+
+    void recordExecution(StatementStatistics statement, long nanos, boolean failed) {
+        statement.recordExecution(nanos, failed);
+
+        if (nanos >= TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis)) {
+            slowQueries.increment();
+            if (ThreadLocalRandom.current().nextDouble() < slowQuerySampleRate) {
+                String sql = statement.getSql();
+                slowQueryLogger.execute(() -> log.warn("Slow query ({} ms): {}", TimeUnit.NANOSECONDS.toMillis(nanos), sql));
+            }
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive() && statement.getSql().startsWith("select")) {
+            int executionsInTransaction = currentTransactionCounts().increment(statement.getSql());
+            if (executionsInTransaction == nPlusOneThreshold) {
+                statement.recordNPlusOneSuspicion();
+                String sql = statement.getSql();
+                slowQueryLogger.execute(() -> log.warn("Possible N+1, statement executed {} times in one transaction: {}",
+                        executionsInTransaction, sql));
+            }
+        }
+    }
+
+    private TransactionStatementCounts currentTransactionCounts() {
+        TransactionStatementCounts counts = (TransactionStatementCounts) TransactionSynchronizationManager.getResource(this);
+        if (counts == null) {
+            counts = new TransactionStatementCounts();
+            TransactionSynchronizationManager.bindResource(this, counts);
+            TransactionSynchronizationManager.registerSynchronization(
+                    new ResourceHolderSynchronization<TransactionStatementCounts, Object>(counts, this) {
+                    });
+        }
+        return counts;
+    }
+
+    @Override
+    public void destroy() {
+        slowQueryLogger.shutdown();
+    }
+
+    private static class TransactionStatementCounts extends ResourceHolderSupport {
+
+        private final Map<String, Integer> counts = new HashMap<>();
+
+        int increment(String sql) {
+            return counts.merge(sql, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.transactions.playground.transactionsdemo.profiler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters collected for one normalized SQL statement.
+ */
+public class StatementStatistics {
+
+    private final String sql;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder nPlusOneSuspicions = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    StatementStatistics(String sql) {
+        this.sql = sql;
+    }
+
+    void recordExecution(long nanos, boolean failed) {
+        executions.increment();
+        if (failed) {
+            failures.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram.record(nanos);
+    }
+
+    void recordRow() {
+        rows.increment();
+    }
+
+    void recordNPlusOneSuspicion() {
+        nPlusOneSuspicions.increment();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getNPlusOneSuspicions() {
+        return nPlusOneSuspicions.sum();
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxTime(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param percentile e.g. 50, 99, 99.9
+     * @return approximated (bucket upper bound) latency in microseconds
+     */
+    public long getPercentileMicros(double percentile) {
+        return histogram.percentileMicros(percentile);
+    }
+
+    @Override
+    public String toString() {
+        long count = getExecutions();
+        return String.format("%s [executions=%d, failures=%d, rows=%d, avg=%dus, p50<=%dus, p99<=%dus, max=%dus, n+1=%d]",
+                sql, count, getFailures(), getRows(),
+                count == 0 ? 0 : getTotalTime(TimeUnit.MICROSECONDS) / count,
+                getPercentileMicros(50), getPercentileMicros(99), getMaxTime(TimeUnit.MICROSECONDS),
+                getNPlusOneSuspicions());
+    }
+}
@@ -0,0 +1,249 @@
+package com.transactions.playground.transactionsdemo.repo;
+
+import com.transactions.playground.transactionsdemo.deadline.Deadline;
+import com.transactions.playground.transactionsdemo.model.Event;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Non blocking facade of any EventRepo - calls return right away, the work runs on a dedicated executor.
+ *
+ * Every task has its own transaction (read only for reads), so the executor should not have more threads than the connection pool.
+ * Tasks over the queue capacity fail with RejectedExecutionException instead of blocking the caller.
+ *  - cancelled task interrupts its thread and is rolled back (or never started)
+ *  - deadline of the caller ({@link Deadline}) is carried over to the task, time waiting in the queue is taken from it
+ *  - TransactionSynchronizationManager state left behind by a task is cleared, next task on the thread starts clean
+ */
+public class AsyncEventRepository implements DisposableBean {
+
+    private final EventRepo repository;
+
+    private final TransactionTemplate writeTemplate;
+
+    private final TransactionTemplate readTemplate;
+
+    private final ThreadPoolExecutor executor;
+
+    public AsyncEventRepository(EventRepo repository, PlatformTransactionManager transactionManager, int threads, int queueCapacity) {
+        this.repository = repository;
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setReadOnly(true);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "event-repo-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public <S extends Event> CompletableFuture<S> saveAsync(S event) {
+        return writeAsync(repository -> repository.save(event));
+    }
+
+    public CompletableFuture<List<Event>> findAfterAsync(long afterId, int limit) {
+        return readAsync(repository -> repository.findAfter(afterId, limit));
+    }
+
+    /**
+     * passes all events to the consumer (on executor thread) in id order, every batch is read in its own transaction
+     *
+     * @return number of events streamed
+     */
+    public CompletableFuture<Long> streamAsync(Consumer<Event> consumer, int batchSize) {
+        StreamFuture future = new StreamFuture();
+        streamBatch(future, Long.MIN_VALUE, 0, consumer, batchSize);
+        return future;
+    }
+
+    /**
+     * independent reads are submitted together and run concurrently, each in its own read only transaction
+     *
+     * @return results in the order of operations, fails if any of them fails
+     */
+    public <T> CompletableFuture<List<T>> readPipeline(List<Function<EventRepo, T>> operations) {
+        return pipeline(operations, readTemplate);
+    }
+
+    /**
+     * independent writes are submitted together and run concurrently, each in its own transaction
+     *
+     * @return results in the order of operations, fails if any of them fails
+     */
+    public <T> CompletableFuture<List<T>> writePipeline(List<Function<EventRepo, T>> operations) {
+        return pipeline(operations, writeTemplate);
+    }
+
+    public <T> CompletableFuture<T> writeAsync(Function<EventRepo, T> operation) {
+        TaskFuture<T> future = new TaskFuture<>();
+        submit(future, writeTemplate, operation);
+        return future;
+    }
+
+    public <T> CompletableFuture<T> readAsync(Function<EventRepo, T> operation) {
+        TaskFuture<T> future = new TaskFuture<>();
+        submit(future, readTemplate, operation);
+        return future;
+    }
+
+    /**
+     * @return tasks waiting for a thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<List<T>> pipeline(List<Function<EventRepo, T>> operations, TransactionTemplate template) {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        operations.forEach(operation -> {
+            TaskFuture<T> future = new TaskFuture<>();
+            submit(future, template, operation);
+            futures.add(future);
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<T> results = new ArrayList<>();
+            futures.forEach(future -> results.add(future.join()));
+            return results;
+        });
+    }
+
+    private void streamBatch(StreamFuture future, long afterId, long streamed, Consumer<Event> consumer, int batchSize) {
+        TaskFuture<List<Event>> batch = new TaskFuture<>();
+        batch.whenComplete((events, failure) -> {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else if (events.size() < batchSize) {
+                future.complete(streamed + events.size());
+            } else {
+                streamBatch(future, events.get(events.size() - 1).getId(), streamed + events.size(), consumer, batchSize);
+            }
+        });
+        future.currentBatch = batch;
+        if (future.isDone()) {
+            //cancelled in the meantime
+            batch.cancel(true);
+        }
+        submit(batch, readTemplate, repository -> {
+            List<Event> events = repository.findAfter(afterId, batchSize);
+            events.forEach(consumer);
+            return events;
+        });
+    }
+
+    private <T> void submit(TaskFuture<T> future, TransactionTemplate template, Function<EventRepo, T> operation) {
+        Long remaining = Deadline.remainingNanos();
+        //absolute, time spent in the queue counts
+        Long deadline = remaining == null ? null : System.nanoTime() + remaining;
+        try {
+            executor.execute(() -> run(future, template, operation, deadline));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private <T> void run(TaskFuture<T> future, TransactionTemplate template, Function<EventRepo, T> operation, Long deadline) {
+        if (!future.start()) {
+            return;
+        }
+        try (Deadline.Binding ignored = deadline == null ? null : Deadline.within(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            T result = template.execute(status -> {
+                T value = operation.apply(repository);
+                if (future.isCancelled()) {
+                    status.setRollbackOnly();
+                }
+                return value;
+            });
+            future.complete(result);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            future.finish();
+            clearTransactionState();
+        }
+    }
+
+    private static void clearTransactionState() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clear();
+        }
+        for (Object key : new HashSet<>(TransactionSynchronizationManager.getResourceMap().keySet())) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(key);
+        }
+    }
+
+    /**
+     * CompletableFuture which interrupts the thread running the task when cancelled
+     */
+    private static class TaskFuture<T> extends CompletableFuture<T> {
+
+        private Thread runner;
+
+        /**
+         * @return false if the task was cancelled before it started
+         */
+        synchronized boolean start() {
+            if (isDone()) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        synchronized void finish() {
+            runner = null;
+            //interrupt of cancellation must not hit the next task
+            Thread.interrupted();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized (this) {
+                if (cancelled && mayInterruptIfRunning && runner != null) {
+                    runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * result of streaming, cancellation stops the batch being read
+     */
+    private static class StreamFuture extends CompletableFuture<Long> {
+
+        private volatile TaskFuture<?> currentBatch;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            TaskFuture<?> batch = currentBatch;
+            if (cancelled && batch != null) {
+                batch.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+}
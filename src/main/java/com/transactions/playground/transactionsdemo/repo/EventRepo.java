@@ -3,10 +3,40 @@ package com.transactions.playground.transactionsdemo.repo;
 import com.transactions.playground.transactionsdemo.model.Event;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface EventRepo {
 
-    Event save(Event event);
+    <S extends Event> S save(S event);
 
     List<Event> findAll();
+
+    /**
+     * keyset page - at most limit events with id greater than afterId, ordered by id
+     */
+    List<Event> findAfter(long afterId, int limit);
+
+    /**
+     * insert only - no existence check, fails if any id is already used
+     */
+    void insertAll(List<Event> events);
+
+    /**
+     * insert or update (by id) using SQL MERGE, one batch
+     */
+    void upsertAll(List<Event> events);
+
+    /*
+     * aggregates are calculated by database, no events are loaded
+     */
+
+    long count();
+
+    boolean existsById(Long id);
+
+    long countByDescriptionPrefix(String prefix);
+
+    Optional<Long> findMinId();
+
+    Optional<Long> findMaxId();
 }
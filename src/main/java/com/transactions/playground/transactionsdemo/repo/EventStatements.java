@@ -0,0 +1,52 @@
+package com.transactions.playground.transactionsdemo.repo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * plain SQL shared by repositories
+ */
+final class EventStatements {
+
+    static final String INSERT = "insert into Event(id, description) values(?,?)";
+
+    static final String MERGE = "merge into Event(id, description) key(id) values(?,?)";
+
+    static final String COUNT = "select count(*) from event";
+
+    static final String COUNT_BY_ID = "select count(*) from event where id = ?";
+
+    static final String COUNT_BY_DESCRIPTION_LIKE = "select count(*) from event where description like ? escape '\\'";
+
+    static final String MIN_ID = "select min(id) from event";
+
+    static final String MAX_ID = "select max(id) from event";
+
+    private EventStatements() {
+    }
+
+    /**
+     * @return LIKE pattern matching given prefix, wildcards in the prefix are escaped with '\'
+     */
+    static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    /**
+     * used by ORM repositories, which have no JdbcTemplate, to write directly on the connection of current session
+     */
+    static void batchUpdate(Connection connection, String sql, List<Event> events) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Event event : events) {
+                statement.setLong(1, event.getId());
+                statement.setString(2, event.getDescription());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.transactions.playground.transactionsdemo.repo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.Session;
+import org.hibernate.stat.SessionStatistics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps persistence context of long write transactions small - otherwise every inserted entity (and its snapshot)
+ * stays in memory until commit and every flush dirty checks all of them.
+ *
+ * Inserts are flushed every {@link #getFlushEvery()} entities or when their estimated size reaches {@link #getMaxEstimatedBytes()},
+ * then the persistence context is cleared - but only in write only unit of work, i.e. if it holds nothing but entities inserted here
+ * (clearing would detach entities loaded by the caller). Inserted events are detached after clear.
+ * Unit of work holding other entities keeps being flushed, so pending INSERTs don't pile up, only the clear is skipped.
+ *
+ * Entities inserted in the transaction are counted in TransactionSynchronizationManager, per session.
+ */
+@Component
+public class FlushClearPolicy {
+
+    @Getter
+    @Setter
+    private int flushEvery = 1000;
+
+    @Getter
+    @Setter
+    private long maxEstimatedBytes = 64 * 1024 * 1024;
+
+    /**
+     * entity entry, key and snapshot, without description
+     */
+    @Getter
+    @Setter
+    private int estimatedBytesPerEntity = 256;
+
+    private final LongAdder flushes = new LongAdder();
+
+    private final LongAdder flushNanos = new LongAdder();
+
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    private final LongAdder clears = new LongAdder();
+
+    private final AtomicLong maxPersistenceContextSize = new AtomicLong();
+
+    /**
+     * persists events (session has to take part in transaction), flushes them and clears the persistence context only when it is full -
+     * in between INSERTs wait for a query, JDBC read or commit to flush them
+     */
+    void insert(Session session, List<Event> events, Consumer<Event> persist) {
+        UnitOfWork unit = currentUnitOfWork(session);
+        for (Event event : events) {
+            persist.accept(event);
+            unit.entities++;
+            unit.estimatedBytes += estimatedBytesPerEntity + 2L * 2 * (event.getDescription() == null ? 0 : event.getDescription().length());
+            if (isFull(unit)) {
+                flush(session);
+                clearIfWriteOnly(session, unit);
+            }
+        }
+    }
+
+    /**
+     * @return flushes done by the policy when persistence context was full (not by queries or commit)
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getTotalFlushTime(TimeUnit unit) {
+        return unit.convert(flushNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxFlushTime(TimeUnit unit) {
+        return unit.convert(maxFlushNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getClears() {
+        return clears.sum();
+    }
+
+    /**
+     * @return the biggest number of entities seen in a persistence context when flushing
+     */
+    public long getMaxPersistenceContextSize() {
+        return maxPersistenceContextSize.get();
+    }
+
+    public void resetStatistics() {
+        flushes.reset();
+        flushNanos.reset();
+        maxFlushNanos.set(0);
+        clears.reset();
+        maxPersistenceContextSize.set(0);
+    }
+
+    private boolean isFull(UnitOfWork unit) {
+        return unit.entities >= flushEvery || unit.estimatedBytes >= maxEstimatedBytes;
+    }
+
+    private void flush(Session session) {
+        long start = System.nanoTime();
+        session.flush();
+        long nanos = System.nanoTime() - start;
+        flushes.increment();
+        flushNanos.add(nanos);
+        maxFlushNanos.accumulateAndGet(nanos, Math::max);
+        maxPersistenceContextSize.accumulateAndGet(session.getStatistics().getEntityCount(), Math::max);
+    }
+
+    private void clearIfWriteOnly(Session session, UnitOfWork unit) {
+        SessionStatistics statistics = session.getStatistics();
+        if (statistics.getEntityCount() != unit.entities || statistics.getCollectionCount() != 0) {
+            //something else is managed by the session, from now on it is only flushed
+            unit.writeOnly = false;
+        }
+        if (unit.writeOnly) {
+            session.clear();
+            clears.increment();
+        }
+        unit.entities = 0;
+        unit.estimatedBytes = 0;
+    }
+
+    private UnitOfWork currentUnitOfWork(Session session) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new UnitOfWork();
+        }
+        UnitsOfWork units = (UnitsOfWork) TransactionSynchronizationManager.getResource(this);
+        if (units == null) {
+            units = new UnitsOfWork();
+            TransactionSynchronizationManager.bindResource(this, units);
+            TransactionSynchronizationManager.registerSynchronization(
+                    new ResourceHolderSynchronization<UnitsOfWork, Object>(units, this) {
+                    });
+        }
+        return units.bySession.computeIfAbsent(session, key -> new UnitOfWork());
+    }
+
+    private static class UnitsOfWork extends ResourceHolderSupport {
+
+        private final Map<Session, UnitOfWork> bySession = new IdentityHashMap<>();
+    }
+
+    private static class UnitOfWork {
+
+        /**
+         * inserted since the last flush
+         */
+        private int entities;
+
+        private long estimatedBytes;
+
+        private boolean writeOnly = true;
+    }
+}
@@ -0,0 +1,472 @@
+package com.transactions.playground.transactionsdemo.repo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * EventRepo kept in memory, without JDBC, which takes part in Spring transactions like any other resource.
+ *
+ * Committed events are kept in id ordered map, every event is a chain of versions (MVCC):
+ *  - commit creates a new version number, readers see versions not newer than their snapshot
+ *  - transaction takes its snapshot on first access and sees it until the end (plus its own changes)
+ *  - versions not visible for any open snapshot are pruned on commit, removed event stays as a tombstone version
+ *    (the entry is never removed, conflicts are detected by its version like for any other change)
+ *  - first committer wins: transaction changing an event committed (or being committed) by another transaction
+ *    after its snapshot fails before commit - DuplicateKeyException for inserts, OptimisticLockingFailureException otherwise
+ *  - reads walk the skip list directly, nothing is copied
+ *
+ * Changes done in a transaction are kept in a resource bound to TransactionSynchronizationManager,
+ * validated (and their ids reserved) before commit, applied after commit and simply dropped on rollback.
+ * Without transaction synchronization changes are applied right away.
+ */
+@Repository
+public class InMemoryEventRepository implements EventRepo {
+
+    private final ConcurrentSkipListMap<Long, Version> events = new ConcurrentSkipListMap<>();
+
+    /**
+     * guards commits, reserved ids and open snapshots, readers of committed events don't lock
+     */
+    private final Object lock = new Object();
+
+    private volatile long lastCommittedVersion;
+
+    /**
+     * snapshot version -> number of readers using it
+     */
+    private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+
+    /**
+     * id -> transaction validated to commit it, but not committed yet
+     */
+    private final Map<Long, TransactionChanges> reservedIds = new HashMap<>();
+
+    @Override
+    public <S extends Event> S save(S event) {
+        upsertAll(Collections.singletonList(event));
+        return event;
+    }
+
+    @Override
+    public List<Event> findAll() {
+        return read(view -> view.after(null, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<Event> findAfter(long afterId, int limit) {
+        return read(view -> view.after(afterId, limit));
+    }
+
+    @Override
+    public void insertAll(List<Event> events) {
+        write(changes -> {
+            for (Event event : events) {
+                if (changes.read(event.getId()) != null) {
+                    throw new DuplicateKeyException("Event " + event.getId() + " already exists");
+                }
+                changes.put(event.getId(), event.getDescription());
+                changes.inserted.add(event.getId());
+            }
+        });
+    }
+
+    @Override
+    public void upsertAll(List<Event> events) {
+        write(changes -> events.forEach(event -> changes.put(event.getId(), event.getDescription())));
+    }
+
+    @Override
+    public long count() {
+        return read(view -> view.count(description -> true));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return read(view -> view.get(id) != null);
+    }
+
+    @Override
+    public long countByDescriptionPrefix(String prefix) {
+        return read(view -> view.count(description -> description.startsWith(prefix)));
+    }
+
+    @Override
+    public Optional<Long> findMinId() {
+        return read(view -> view.edgeId(events.entrySet(), view.changes.entrySet(), Math::min));
+    }
+
+    @Override
+    public Optional<Long> findMaxId() {
+        return read(view -> view.edgeId(events.descendingMap().entrySet(), view.changes.descendingMap().entrySet(), Math::max));
+    }
+
+    /**
+     * removes all committed events (transactions in progress keep their snapshots)
+     */
+    public void clear() {
+        write(changes -> events.keySet().forEach(id -> {
+            if (changes.read(id) != null) {
+                changes.put(id, null);
+            }
+        }));
+    }
+
+    private <T> T read(Function<View, T> reader) {
+        TransactionChanges changes = currentTransactionChanges();
+        if (changes != null) {
+            return reader.apply(new View(changes.snapshot, changes.changes));
+        }
+        long snapshot = openSnapshot();
+        try {
+            return reader.apply(new View(snapshot, Collections.emptyNavigableMap()));
+        } finally {
+            closeSnapshot(snapshot);
+        }
+    }
+
+    private void write(ChangesConsumer writer) {
+        TransactionChanges changes = currentTransactionChanges();
+        if (changes != null) {
+            writer.accept(changes);
+            return;
+        }
+        changes = new TransactionChanges(openSnapshot());
+        try {
+            writer.accept(changes);
+            commit(changes);
+        } finally {
+            closeSnapshot(changes.snapshot);
+        }
+    }
+
+    /**
+     * @return changes of current transaction, null if there is no transaction
+     */
+    private TransactionChanges currentTransactionChanges() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        TransactionChanges changes = (TransactionChanges) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new TransactionChanges(openSnapshot());
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(new ChangesSynchronization(changes));
+        }
+        return changes;
+    }
+
+    private long openSnapshot() {
+        synchronized (lock) {
+            long snapshot = lastCommittedVersion;
+            openSnapshots.merge(snapshot, 1, Integer::sum);
+            return snapshot;
+        }
+    }
+
+    private void closeSnapshot(long snapshot) {
+        synchronized (lock) {
+            openSnapshots.computeIfPresent(snapshot, (version, readers) -> readers == 1 ? null : readers - 1);
+        }
+    }
+
+    /**
+     * fails if any changed event was committed after the snapshot of transaction or is reserved by another one,
+     * otherwise reserves the ids until the transaction completes
+     */
+    private void prepare(TransactionChanges transaction) {
+        synchronized (lock) {
+            for (Long id : transaction.changes.keySet()) {
+                Version committed = events.get(id);
+                TransactionChanges owner = reservedIds.get(id);
+                boolean committedConcurrently = committed != null && committed.version > transaction.snapshot;
+                if (committedConcurrently || (owner != null && owner != transaction)) {
+                    if (transaction.inserted.contains(id)) {
+                        throw new DuplicateKeyException("Event " + id + " inserted by concurrent transaction");
+                    }
+                    throw new OptimisticLockingFailureException("Event " + id + " changed by concurrent transaction");
+                }
+            }
+            transaction.changes.keySet().forEach(id -> reservedIds.put(id, transaction));
+            transaction.prepared = true;
+        }
+    }
+
+    private void release(TransactionChanges transaction) {
+        synchronized (lock) {
+            transaction.changes.keySet().forEach(id -> reservedIds.remove(id, transaction));
+        }
+    }
+
+    private void commit(TransactionChanges transaction) {
+        if (transaction.changes.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            if (!transaction.prepared) {
+                prepare(transaction);
+            }
+            long version = lastCommittedVersion + 1;
+            long oldestVisible = oldestSnapshotOfOthers(transaction.snapshot, version);
+            transaction.changes.forEach((id, description) -> {
+                Version previous = events.get(id);
+                if (previous != null) {
+                    previous.prune(oldestVisible);
+                }
+                events.put(id, new Version(version, description, previous));
+            });
+            release(transaction);
+            //readers see new versions only now, after all of them are in place
+            lastCommittedVersion = version;
+        }
+    }
+
+    /**
+     * @return the oldest snapshot still open, not counting the one of committing transaction
+     */
+    private long oldestSnapshotOfOthers(long ownSnapshot, long defaultSnapshot) {
+        for (Map.Entry<Long, Integer> snapshot : openSnapshots.entrySet()) {
+            if (snapshot.getKey() != ownSnapshot || snapshot.getValue() > 1) {
+                return snapshot.getKey();
+            }
+        }
+        return defaultSnapshot;
+    }
+
+    private String readCommitted(Long id, long snapshot) {
+        Version version = events.get(id);
+        return version == null ? null : version.visibleAt(snapshot);
+    }
+
+    private static Event toEvent(Long id, String description) {
+        Event event = new Event(id, description);
+        event.markNotNew();
+        return event;
+    }
+
+    private static <T> T next(Iterator<T> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * events visible at snapshot with changes of transaction on top, read straight from the committed versions
+     */
+    private class View {
+
+        private final long snapshot;
+
+        /**
+         * id -> description, null for removed events
+         */
+        private final NavigableMap<Long, String> changes;
+
+        View(long snapshot, NavigableMap<Long, String> changes) {
+            this.snapshot = snapshot;
+            this.changes = changes;
+        }
+
+        String get(Long id) {
+            return changes.containsKey(id) ? changes.get(id) : readCommitted(id, snapshot);
+        }
+
+        /**
+         * @param afterId null for all events
+         */
+        List<Event> after(Long afterId, int limit) {
+            Iterator<Map.Entry<Long, Version>> committed = (afterId == null ? events : events.tailMap(afterId, false)).entrySet().iterator();
+            Iterator<Map.Entry<Long, String>> changed = (afterId == null ? changes : changes.tailMap(afterId, false)).entrySet().iterator();
+            Map.Entry<Long, Version> nextCommitted = next(committed);
+            Map.Entry<Long, String> nextChanged = next(changed);
+            List<Event> result = new ArrayList<>();
+            while (result.size() < limit && (nextCommitted != null || nextChanged != null)) {
+                if (nextChanged == null || (nextCommitted != null && nextCommitted.getKey() < nextChanged.getKey())) {
+                    String description = nextCommitted.getValue().visibleAt(snapshot);
+                    if (description != null) {
+                        result.add(toEvent(nextCommitted.getKey(), description));
+                    }
+                    nextCommitted = next(committed);
+                } else {
+                    if (nextCommitted != null && nextCommitted.getKey().equals(nextChanged.getKey())) {
+                        //overwritten by transaction
+                        nextCommitted = next(committed);
+                    }
+                    if (nextChanged.getValue() != null) {
+                        result.add(toEvent(nextChanged.getKey(), nextChanged.getValue()));
+                    }
+                    nextChanged = next(changed);
+                }
+            }
+            return result;
+        }
+
+        long count(Predicate<String> filter) {
+            long count = 0;
+            for (Map.Entry<Long, Version> event : events.entrySet()) {
+                if (!changes.containsKey(event.getKey())) {
+                    String description = event.getValue().visibleAt(snapshot);
+                    if (description != null && filter.test(description)) {
+                        count++;
+                    }
+                }
+            }
+            for (String description : changes.values()) {
+                if (description != null && filter.test(description)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return the first visible id walking committed events and changes from the same end (both in the same order)
+         */
+        Optional<Long> edgeId(Iterable<Map.Entry<Long, Version>> committed, Iterable<Map.Entry<Long, String>> changed,
+                              BinaryOperator<Long> closer) {
+            Long committedId = null;
+            for (Map.Entry<Long, Version> event : committed) {
+                if (!changes.containsKey(event.getKey()) && event.getValue().visibleAt(snapshot) != null) {
+                    committedId = event.getKey();
+                    break;
+                }
+            }
+            Long changedId = null;
+            for (Map.Entry<Long, String> event : changed) {
+                if (event.getValue() != null) {
+                    changedId = event.getKey();
+                    break;
+                }
+            }
+            if (committedId == null || changedId == null) {
+                return Optional.ofNullable(committedId != null ? committedId : changedId);
+            }
+            return Optional.of(closer.apply(committedId, changedId));
+        }
+    }
+
+    /**
+     * committed state of one event, description is null if event was removed
+     */
+    private static class Version {
+
+        private final long version;
+        private final String description;
+        private volatile Version previous;
+
+        Version(long version, String description, Version previous) {
+            this.version = version;
+            this.description = description;
+            this.previous = previous;
+        }
+
+        String visibleAt(long snapshot) {
+            for (Version current = this; current != null; current = current.previous) {
+                if (current.version <= snapshot) {
+                    return current.description;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * drops versions older than the one visible at the oldest open snapshot
+         */
+        void prune(long oldestVisible) {
+            for (Version current = this; current != null; current = current.previous) {
+                if (current.version <= oldestVisible) {
+                    current.previous = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private interface ChangesConsumer {
+        void accept(TransactionChanges changes);
+    }
+
+    private class TransactionChanges extends ResourceHolderSupport {
+
+        private final long snapshot;
+
+        /**
+         * id -> description, null for removed events
+         */
+        private final TreeMap<Long, String> changes = new TreeMap<>();
+
+        /**
+         * ids written by insertAll, conflicts on them are duplicates
+         */
+        private final Set<Long> inserted = new HashSet<>();
+
+        /**
+         * validated, ids are reserved
+         */
+        private boolean prepared;
+
+        TransactionChanges(long snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        String read(Long id) {
+            return changes.containsKey(id) ? changes.get(id) : readCommitted(id, snapshot);
+        }
+
+        void put(Long id, String description) {
+            changes.put(id, description);
+        }
+    }
+
+    private class ChangesSynchronization extends ResourceHolderSynchronization<TransactionChanges, Object> {
+
+        private final TransactionChanges changes;
+
+        ChangesSynchronization(TransactionChanges changes) {
+            super(changes, InMemoryEventRepository.this);
+            this.changes = changes;
+        }
+
+        /**
+         * exception thrown here rolls the whole transaction back
+         */
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            prepare(changes);
+        }
+
+        @Override
+        protected boolean shouldReleaseBeforeCompletion() {
+            return false;
+        }
+
+        @Override
+        protected void processResourceAfterCommit(TransactionChanges changes) {
+            commit(changes);
+        }
+
+        @Override
+        protected void releaseResource(TransactionChanges changes, Object key) {
+            release(changes);
+            closeSnapshot(changes.snapshot);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Repository
 public class JDBCEventRepository implements EventRepo {
@@ -18,10 +20,12 @@ public class JDBCEventRepository implements EventRepo {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    /**
+     * inserts new or updates already existing event
+     */
     @Override
-    public Event save(Event event) {
-        jdbcTemplate.update("insert into Event(id, description) values(?,?)",
-                new Object[]{event.getId(), event.getDescription()});
+    public <S extends Event> S save(S event) {
+        jdbcTemplate.update(EventStatements.MERGE, event.getId(), event.getDescription());
         return event;
     }
 
@@ -30,11 +34,60 @@ public class JDBCEventRepository implements EventRepo {
         return jdbcTemplate.query("select id, description from event", getEventMapper());
     }
 
+    @Override
+    public List<Event> findAfter(long afterId, int limit) {
+        return jdbcTemplate.query("select id, description from event where id > ? order by id limit ?", getEventMapper(),
+                afterId, limit);
+    }
+
+    @Override
+    public void insertAll(List<Event> events) {
+        jdbcTemplate.batchUpdate(EventStatements.INSERT, toBatchArguments(events));
+    }
+
+    @Override
+    public void upsertAll(List<Event> events) {
+        jdbcTemplate.batchUpdate(EventStatements.MERGE, toBatchArguments(events));
+    }
+
+    @Override
+    public long count() {
+        return jdbcTemplate.queryForObject(EventStatements.COUNT, Long.class);
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return jdbcTemplate.queryForObject(EventStatements.COUNT_BY_ID, Long.class, id) > 0;
+    }
+
+    @Override
+    public long countByDescriptionPrefix(String prefix) {
+        return jdbcTemplate.queryForObject(EventStatements.COUNT_BY_DESCRIPTION_LIKE, Long.class,
+                EventStatements.likePrefix(prefix));
+    }
+
+    @Override
+    public Optional<Long> findMinId() {
+        return Optional.ofNullable(jdbcTemplate.queryForObject(EventStatements.MIN_ID, Long.class));
+    }
+
+    @Override
+    public Optional<Long> findMaxId() {
+        return Optional.ofNullable(jdbcTemplate.queryForObject(EventStatements.MAX_ID, Long.class));
+    }
+
+    private List<Object[]> toBatchArguments(List<Event> events) {
+        return events.stream()
+                .map(event -> new Object[]{event.getId(), event.getDescription()})
+                .collect(Collectors.toList());
+    }
+
     private RowMapper<Event> getEventMapper() {
         return (resultSet, i) -> {
             Event event = new Event();
             event.setId(resultSet.getLong("id"));
             event.setDescription(resultSet.getString("description"));
+            event.markNotNew();
             return event;
         };
     }
@@ -4,6 +4,15 @@ import com.transactions.playground.transactionsdemo.model.Event;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+/**
+ * CRUD methods come from SimpleJpaRepository, bulk operations from {@link JpaEventRepositoryImpl}
+ */
 @Repository
-public interface JpaEventRepository extends JpaRepository<Event, Long> {
+public interface JpaEventRepository extends JpaRepository<Event, Long>, EventRepo {
+
+    /**
+     * Event is Persistable, so new events are persisted (no SELECT issued by merge)
+     */
+    @Override
+    <S extends Event> S save(S event);
 }
@@ -0,0 +1,111 @@
+package com.transactions.playground.transactionsdemo.repo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TransactionRequiredException;
+import javax.persistence.TypedQuery;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * custom part of {@link JpaEventRepository}, takes precedence over SimpleJpaRepository (count and existsById are not overridden)
+ *
+ * New events are persisted (merge would SELECT first), INSERTs wait for flush by queries or commit - flush explicitly
+ * before reading them by JDBC. Long write only transactions are flushed and cleared periodically, see {@link FlushClearPolicy}.
+ * Writes need JPA transaction (JpaTransactionManager), the entity manager is never flushed otherwise.
+ */
+public class JpaEventRepositoryImpl {
+
+    private final EntityManager entityManager;
+
+    private final FlushClearPolicy flushClearPolicy;
+
+    /**
+     * SessionFactory is an EntityManagerFactory as well, so the one used by Spring Data is picked by name
+     */
+    @Autowired
+    public JpaEventRepositoryImpl(@Qualifier("entityManagerFactory") EntityManagerFactory entityManagerFactory,
+                                  FlushClearPolicy flushClearPolicy) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.flushClearPolicy = flushClearPolicy;
+    }
+
+    /**
+     * JpaTransactionManager makes only new entity managers read only, in read only transaction
+     * the query itself skips snapshots (no dirty checking) and auto flush also for entity managers opened earlier
+     */
+    @Transactional(readOnly = true)
+    public List<Event> findAll() {
+        TypedQuery<Event> query = entityManager.createQuery("SELECT e from Event e", Event.class);
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            query.setHint(QueryHints.READ_ONLY, true);
+            query.setHint(QueryHints.FLUSH_MODE, FlushMode.MANUAL);
+        }
+        return query.getResultList();
+    }
+
+    @Transactional(readOnly = true)
+    public List<Event> findAfter(long afterId, int limit) {
+        return entityManager.createQuery("SELECT e from Event e where e.id > :afterId order by e.id", Event.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Transactional
+    public <S extends Event> S save(S event) {
+        if (!event.isNew()) {
+            return entityManager.merge(event);
+        }
+        insertAll(Collections.singletonList(event));
+        return event;
+    }
+
+    /**
+     * @throws TransactionRequiredException without JPA transaction (e.g. under DataSourceTransactionManager), instead of losing the events
+     */
+    @Transactional
+    public void insertAll(List<Event> events) {
+        if (!entityManager.isJoinedToTransaction()) {
+            throw new TransactionRequiredException("No JPA transaction, persisted events would never be flushed");
+        }
+        flushClearPolicy.insert(entityManager.unwrap(Session.class), events, entityManager::persist);
+    }
+
+    @Transactional
+    public void upsertAll(List<Event> events) {
+        if (entityManager.isJoinedToTransaction()) {
+            entityManager.flush();
+        }
+        entityManager.unwrap(Session.class).doWork(connection ->
+                EventStatements.batchUpdate(connection, EventStatements.MERGE, events));
+    }
+
+    @Transactional(readOnly = true)
+    public long countByDescriptionPrefix(String prefix) {
+        return entityManager.createQuery("SELECT count(e) from Event e where e.description like :prefix escape '\\'", Long.class)
+                .setParameter("prefix", EventStatements.likePrefix(prefix))
+                .getSingleResult();
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<Long> findMinId() {
+        return Optional.ofNullable(entityManager.createQuery("SELECT min(e.id) from Event e", Long.class).getSingleResult());
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<Long> findMaxId() {
+        return Optional.ofNullable(entityManager.createQuery("SELECT max(e.id) from Event e", Long.class).getSingleResult());
+    }
+}
@@ -1,32 +1,120 @@
 package com.transactions.playground.transactionsdemo.repo;
 
 import com.transactions.playground.transactionsdemo.model.Event;
+import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.TransactionRequiredException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 
+/**
+ * Ids are assigned, so hibernate postpones INSERT until flush (no SELECT is needed to check if event exists).
+ * Inserts are flushed by queries and commit - flush explicitly before reading them by JDBC,
+ * long write only transactions are flushed and cleared periodically ({@link FlushClearPolicy}).
+ * Inserts need hibernate transaction, the session is never flushed otherwise.
+ */
 @Repository
 public class SessionEventRepository implements EventRepo {
 
     @Autowired
     private SessionFactory sessionFactory;
 
-    @Override
-    public Event save(Event event) {
+    @Autowired
+    private FlushClearPolicy flushClearPolicy;
 
-        Session currentSession = sessionFactory.getCurrentSession();
-        currentSession.save(event);
+    @Override
+    public <S extends Event> S save(S event) {
+        insertAll(Collections.singletonList(event));
         return event;
     }
 
+    /**
+     * HibernateTransactionManager makes only new sessions read only, in read only transaction
+     * the query itself skips snapshots (no dirty checking) and auto flush also for sessions opened earlier
+     */
     @Override
     public List<Event> findAll() {
         Session currentSession = sessionFactory.getCurrentSession();
-        return currentSession.createQuery("SELECT e from Event e", Event.class).getResultList();
+        Query<Event> query = currentSession.createQuery("SELECT e from Event e", Event.class);
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            query.setReadOnly(true).setHibernateFlushMode(FlushMode.MANUAL);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Event> findAfter(long afterId, int limit) {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return currentSession.createQuery("SELECT e from Event e where e.id > :afterId order by e.id", Event.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * @throws TransactionRequiredException without hibernate transaction, instead of losing the events
+     */
+    @Override
+    public void insertAll(List<Event> events) {
+        Session currentSession = sessionFactory.getCurrentSession();
+        if (!currentSession.getTransaction().isActive()) {
+            throw new TransactionRequiredException("No hibernate transaction, saved events would never be flushed");
+        }
+        flushClearPolicy.insert(currentSession, events, currentSession::save);
+    }
+
+    /**
+     * pending changes are flushed first, MERGE is executed on the session connection (events are not attached to the session)
+     */
+    @Override
+    public void upsertAll(List<Event> events) {
+        Session currentSession = sessionFactory.getCurrentSession();
+        if (currentSession.getTransaction().isActive()) {
+            currentSession.flush();
+        }
+        currentSession.doWork(connection -> EventStatements.batchUpdate(connection, EventStatements.MERGE, events));
+    }
+
+    @Override
+    public long count() {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return currentSession.createQuery("SELECT count(e) from Event e", Long.class).getSingleResult();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return currentSession.createQuery("SELECT count(e) from Event e where e.id = :id", Long.class)
+                .setParameter("id", id)
+                .getSingleResult() > 0;
+    }
+
+    @Override
+    public long countByDescriptionPrefix(String prefix) {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return currentSession.createQuery("SELECT count(e) from Event e where e.description like :prefix escape '\\'", Long.class)
+                .setParameter("prefix", EventStatements.likePrefix(prefix))
+                .getSingleResult();
+    }
+
+    @Override
+    public Optional<Long> findMinId() {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return Optional.ofNullable(currentSession.createQuery("SELECT min(e.id) from Event e", Long.class).getSingleResult());
+    }
+
+    @Override
+    public Optional<Long> findMaxId() {
+        Session currentSession = sessionFactory.getCurrentSession();
+        return Optional.ofNullable(currentSession.createQuery("SELECT max(e.id) from Event e", Long.class).getSingleResult());
     }
 
 }
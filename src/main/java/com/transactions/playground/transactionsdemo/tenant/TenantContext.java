@@ -0,0 +1,49 @@
+package com.transactions.playground.transactionsdemo.tenant;
+
+/**
+ * Tenant of the current thread, used by {@link TenantRoutingDataSource} to pick the tenant's database.
+ *
+ * Tenant is resolved when a connection is taken - in a transaction that is its beginning, the connection is bound
+ * by the transaction manager until the end, so switching tenant inside a transaction has no effect.
+ */
+public final class TenantContext {
+
+    private static final ThreadLocal<String> currentTenant = new ThreadLocal<>();
+
+    private TenantContext() {
+    }
+
+    /**
+     * @return tenant bound to current thread, null if there is none
+     */
+    public static String getCurrentTenant() {
+        return currentTenant.get();
+    }
+
+    /**
+     * binds tenant to current thread until the returned binding is closed, the previous one is restored then
+     */
+    public static Binding bind(String tenantId) {
+        Binding binding = new Binding(currentTenant.get());
+        currentTenant.set(tenantId);
+        return binding;
+    }
+
+    public static class Binding implements AutoCloseable {
+
+        private final String previousTenant;
+
+        private Binding(String previousTenant) {
+            this.previousTenant = previousTenant;
+        }
+
+        @Override
+        public void close() {
+            if (previousTenant == null) {
+                currentTenant.remove();
+            } else {
+                currentTenant.set(previousTenant);
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.transactions.playground.transactionsdemo.tenant;
+
+import com.transactions.playground.transactionsdemo.jdbc.JdbcProxyHandler;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * DataSource of many tenants, each having its own database, the tenant is taken from {@link TenantContext}.
+ *
+ * Unlike AbstractRoutingDataSource (fixed map of target data sources) the pools are created lazily by the factory
+ * and kept in LRU cache:
+ *  - above {@link #getMaxTenants()} the least recently used pool is closed
+ *  - pools not used for {@link #getIdleTimeoutMillis()} are closed by background eviction
+ *  - pool with connections in use is never closed, connections are counted when returned (closed)
+ *
+ * Use it with DataSourceTransactionManager (or as the DataSource of any other one) as usual,
+ * transaction keeps the connection of the tenant bound at its beginning.
+ */
+@Slf4j
+public class TenantRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+    private final Function<String, DataSource> dataSourceFactory;
+
+    /**
+     * tenant -> pool in access order, guards lease counts as well
+     */
+    private final LinkedHashMap<String, TenantPool> pools = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "tenant-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder createdPools = new LongAdder();
+
+    private final LongAdder evictedPools = new LongAdder();
+
+    /**
+     * called once for every new pool, e.g. to create the schema
+     */
+    @Getter
+    @Setter
+    private Consumer<DataSource> initializer = dataSource -> {
+    };
+
+    @Getter
+    @Setter
+    private int maxTenants = 100;
+
+    @Getter
+    @Setter
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+
+    @Getter
+    @Setter
+    private long evictionIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * @param dataSourceFactory creates pool of given tenant, the pool is closed on eviction if it is AutoCloseable (e.g. HikariDataSource)
+     */
+    public TenantRoutingDataSource(Function<String, DataSource> dataSourceFactory) {
+        this.dataSourceFactory = dataSourceFactory;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        evictor.scheduleWithFixedDelay(this::evictIdlePools, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        TenantPool pool = lease(currentTenant());
+        try {
+            return pool.wrap(pool.dataSource().getConnection());
+        } catch (SQLException | RuntimeException e) {
+            release(pool);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        TenantPool pool = lease(currentTenant());
+        try {
+            return pool.wrap(pool.dataSource().getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            release(pool);
+            throw e;
+        }
+    }
+
+    /**
+     * closes pools without connections in use which were not used for idle timeout
+     */
+    public void evictIdlePools() {
+        long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        List<TenantPool> evicted = new ArrayList<>();
+        synchronized (pools) {
+            Iterator<TenantPool> iterator = pools.values().iterator();
+            while (iterator.hasNext()) {
+                TenantPool pool = iterator.next();
+                if (pool.leases == 0 && pool.lastUsedNanos - idleSince < 0) {
+                    iterator.remove();
+                    evicted.add(pool);
+                }
+            }
+        }
+        evicted.forEach(this::close);
+    }
+
+    /**
+     * @return tenants having a pool, least recently used first
+     */
+    public List<String> getTenants() {
+        synchronized (pools) {
+            return new ArrayList<>(pools.keySet());
+        }
+    }
+
+    public long getCreatedPools() {
+        return createdPools.sum();
+    }
+
+    public long getEvictedPools() {
+        return evictedPools.sum();
+    }
+
+    @Override
+    public void destroy() {
+        evictor.shutdownNow();
+        List<TenantPool> all;
+        synchronized (pools) {
+            all = new ArrayList<>(pools.values());
+            pools.clear();
+        }
+        all.forEach(this::close);
+    }
+
+    private static String currentTenant() {
+        String tenant = TenantContext.getCurrentTenant();
+        if (tenant == null) {
+            throw new IllegalStateException("No tenant bound to current thread, see TenantContext.bind");
+        }
+        return tenant;
+    }
+
+    private TenantPool lease(String tenant) {
+        TenantPool pool;
+        List<TenantPool> evicted = new ArrayList<>();
+        synchronized (pools) {
+            pool = pools.computeIfAbsent(tenant, TenantPool::new);
+            pool.leases++;
+            pool.lastUsedNanos = System.nanoTime();
+
+            Iterator<TenantPool> leastRecentlyUsed = pools.values().iterator();
+            while (pools.size() > maxTenants && leastRecentlyUsed.hasNext()) {
+                TenantPool candidate = leastRecentlyUsed.next();
+                if (candidate.leases == 0) {
+                    leastRecentlyUsed.remove();
+                    evicted.add(candidate);
+                }
+            }
+        }
+        evicted.forEach(this::close);
+        return pool;
+    }
+
+    private void release(TenantPool pool) {
+        synchronized (pools) {
+            pool.leases--;
+            pool.lastUsedNanos = System.nanoTime();
+        }
+    }
+
+    private void close(TenantPool pool) {
+        DataSource dataSource = pool.dataSource;
+        if (dataSource == null) {
+            return;
+        }
+        evictedPools.increment();
+        if (dataSource instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) dataSource).close();
+            } catch (Exception e) {
+                log.warn("Closing pool of tenant {} failed", pool.tenant, e);
+            }
+        }
+    }
+
+    private class TenantPool {
+
+        private final String tenant;
+
+        /**
+         * created on first use, not under the lock of all pools
+         */
+        private volatile DataSource dataSource;
+
+        /**
+         * connections in use and connections being taken, guarded by pools
+         */
+        private int leases;
+
+        private long lastUsedNanos;
+
+        TenantPool(String tenant) {
+            this.tenant = tenant;
+        }
+
+        DataSource dataSource() {
+            DataSource result = dataSource;
+            if (result != null) {
+                return result;
+            }
+            synchronized (this) {
+                if (dataSource == null) {
+                    DataSource created = dataSourceFactory.apply(tenant);
+                    initializer.accept(created);
+                    createdPools.increment();
+                    dataSource = created;
+                }
+                return dataSource;
+            }
+        }
+
+        Connection wrap(Connection connection) {
+            return JdbcProxyHandler.proxy(Connection.class, new LeasedConnectionHandler(connection, this));
+        }
+    }
+
+    /**
+     * returns the lease of tenant pool when connection is closed
+     */
+    private class LeasedConnectionHandler extends JdbcProxyHandler {
+
+        private final TenantPool pool;
+
+        private boolean closed;
+
+        LeasedConnectionHandler(Connection target, TenantPool pool) {
+            super(target, "Tenant " + pool.tenant + " proxy");
+            this.pool = pool;
+        }
+
+        @Override
+        protected Object doInvoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"close".equals(method.getName())) {
+                return invokeTarget(method, args);
+            }
+            if (closed) {
+                return null;
+            }
+            closed = true;
+            try {
+                return invokeTarget(method, args);
+            } finally {
+                release(pool);
+            }
+        }
+    }
+}
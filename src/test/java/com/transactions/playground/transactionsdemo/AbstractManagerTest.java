@@ -10,6 +10,7 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
@@ -45,4 +46,15 @@ public class AbstractManagerTest {
     public void assertEvents(List<Event> events, String ... descriptions) {
         assertThat(events).extracting("description").containsExactly(descriptions);
     }
+
+    /**
+     * @return events with consecutive ids starting at firstId, described as "desc" + id
+     */
+    protected static List<Event> events(long firstId, int count) {
+        List<Event> events = new ArrayList<>();
+        for (long id = firstId; id < firstId + count; id++) {
+            events.add(new Event(id, "desc" + id));
+        }
+        return events;
+    }
 }
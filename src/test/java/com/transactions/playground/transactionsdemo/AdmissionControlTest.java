@@ -0,0 +1,321 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.admission.AdmissionControlledTransactionManager;
+import com.transactions.playground.transactionsdemo.admission.AdmissionLimiter;
+import com.transactions.playground.transactionsdemo.admission.TransactionAdmissionException;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AdmissionControlledTransactionManager keeps the number of concurrent transactions bounded, excess ones wait or are rejected
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class AdmissionControlTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return new AdmissionControlledTransactionManager(transactionManager, new AdmissionLimiter("default", 4));
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private AdmissionLimiter writeLimiter;
+
+    private AdmissionLimiter readLimiter;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Before
+    public void setUp() {
+        AdmissionControlledTransactionManager transactionManager = (AdmissionControlledTransactionManager) platformTransactionManager;
+        writeLimiter = new AdmissionLimiter("writes", 1);
+        writeLimiter.setMaxQueueSize(1);
+        readLimiter = new AdmissionLimiter("reads", 1);
+        transactionManager.addLimiter(AdmissionControlledTransactionManager.READ_WRITE, writeLimiter);
+        transactionManager.addLimiter(AdmissionControlledTransactionManager.READ_ONLY, readLimiter);
+        transactionManager.setRequiresNewLimiter(null);
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws Exception {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(this::insertInTransaction);
+        awaitQueueDepth(writeLimiter, 1);
+
+        assertThatThrownBy(() -> CompletableFuture.runAsync(this::insertInTransaction).join())
+                .hasCauseInstanceOf(TransactionAdmissionException.class);
+        assertThat(writeLimiter.getRejections()).isEqualTo(1);
+
+        platformTransactionManager.commit(transaction);
+        waiting.get(5, TimeUnit.SECONDS);
+        assertThat(writeLimiter.getAdmissions()).isEqualTo(2);
+        assertThat(writeLimiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void shouldTimeOutWaitingForAdmission() {
+        writeLimiter.setMaxWaitMillis(50);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        assertThatThrownBy(() -> CompletableFuture.runAsync(this::insertInTransaction).join())
+                .hasCauseInstanceOf(TransactionAdmissionException.class);
+
+        platformTransactionManager.commit(transaction);
+        assertThat(writeLimiter.getTimeouts()).isEqualTo(1);
+        assertThat(writeLimiter.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void shouldReusePermitInNestedTransactions() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
+        TransactionStatus newTransaction = platformTransactionManager.getTransaction(definition);
+        platformTransactionManager.commit(newTransaction);
+        assertThat(writeLimiter.getInFlight()).isEqualTo(1);
+
+        platformTransactionManager.rollback(transaction);
+        assertThat(writeLimiter.getInFlight()).isZero();
+        assertThat(writeLimiter.getAdmissions()).isEqualTo(1);
+    }
+
+    /**
+     * REQUIRES_NEW holds a second connection, its permit comes from the requires new limiter
+     */
+    @Test
+    public void shouldTakeSeparatePermitForRequiresNewTransaction() throws Exception {
+        AdmissionLimiter requiresNewLimiter = new AdmissionLimiter("requires-new", 1);
+        requiresNewLimiter.setMaxWaitMillis(50);
+        ((AdmissionControlledTransactionManager) platformTransactionManager).setRequiresNewLimiter(requiresNewLimiter);
+        DefaultTransactionDefinition requiresNew = new DefaultTransactionDefinition();
+        requiresNew.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        TransactionStatus newTransaction = platformTransactionManager.getTransaction(requiresNew);
+        assertThat(writeLimiter.getInFlight()).isEqualTo(1);
+        assertThat(requiresNewLimiter.getInFlight()).isEqualTo(1);
+
+        //read only transaction of another thread is admitted, but there is no connection left for its REQUIRES_NEW
+        assertThatThrownBy(() -> CompletableFuture.runAsync(() -> {
+            DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+            definition.setReadOnly(true);
+            TransactionStatus readTransaction = platformTransactionManager.getTransaction(definition);
+            try {
+                platformTransactionManager.commit(platformTransactionManager.getTransaction(requiresNew));
+            } finally {
+                platformTransactionManager.commit(readTransaction);
+            }
+        }).join()).hasCauseInstanceOf(TransactionAdmissionException.class);
+        assertThat(requiresNewLimiter.getTimeouts()).isEqualTo(1);
+        assertThat(readLimiter.getInFlight()).isZero();
+
+        platformTransactionManager.commit(newTransaction);
+        assertThat(requiresNewLimiter.getInFlight()).isZero();
+        platformTransactionManager.commit(transaction);
+        assertThat(writeLimiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void shouldAdmitReadsWhenWritesAreSaturated() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        long count = CompletableFuture.supplyAsync(() -> {
+            DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+            definition.setReadOnly(true);
+            TransactionStatus readTransaction = platformTransactionManager.getTransaction(definition);
+            try {
+                return jdbcTemplate.queryForObject("select count(*) from event", Long.class);
+            } finally {
+                platformTransactionManager.commit(readTransaction);
+            }
+        }).join();
+
+        platformTransactionManager.commit(transaction);
+        assertThat(count).isZero();
+        assertThat(readLimiter.getAdmissions()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDecreaseLimitOfSlowTransactionsAndRecover() {
+        AdmissionLimiter limiter = new AdmissionLimiter("adaptive", 8);
+        limiter.setTargetHoldMillis(10);
+
+        limiter.acquire();
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(50), true);
+        assertThat(limiter.getLimit()).isEqualTo(7);
+        limiter.acquire();
+        limiter.release(0, false);
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        //saturated and fast again
+        for (int round = 0; round < 100; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.release(TimeUnit.MILLISECONDS.toNanos(1), true);
+            }
+        }
+        assertThat(limiter.getLimit()).isEqualTo(8);
+    }
+
+    /**
+     * a burst of slow transactions admitted under the old limit cuts it only once
+     */
+    @Test
+    public void shouldBackOffOncePerRoundTrip() {
+        AdmissionLimiter limiter = new AdmissionLimiter("adaptive", 8);
+        limiter.setTargetHoldMillis(10);
+
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < 8; i++) {
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(50), true);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(7);
+
+        //admitted after the backoff and still slow
+        limiter.acquire();
+        limiter.release(0, false);
+        assertThat(limiter.getLimit()).isEqualTo(6);
+    }
+
+    /**
+     * 32 threads compete for 4 permits and 8 places in the queue: concurrency and queue never exceed their bounds,
+     * the excess is rejected right away instead of piling up on the connection pool
+     */
+    @Test
+    public void shouldShedLoadUnderOverload() throws Exception {
+        AdmissionLimiter limiter = new AdmissionLimiter("overload", 4);
+        limiter.setMaxQueueSize(8);
+        limiter.setMaxWaitMillis(TimeUnit.MINUTES.toMillis(1));
+        ((AdmissionControlledTransactionManager) platformTransactionManager).addLimiter(AdmissionControlledTransactionManager.READ_WRITE, limiter);
+
+        int threads = 32;
+        int transactionsPerThread = 20;
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        AtomicInteger maxQueueDepth = new AtomicInteger();
+        LongAdder admitted = new LongAdder();
+        LongAdder refused = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < transactionsPerThread; i++) {
+                    try {
+                        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        maxQueueDepth.accumulateAndGet(limiter.getQueueDepth(), Math::max);
+                        insert();
+                        Thread.sleep(2);
+                        concurrent.decrementAndGet();
+                        platformTransactionManager.commit(transaction);
+                        admitted.increment();
+                    } catch (TransactionAdmissionException e) {
+                        refused.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        log.info("admitted {}, rejected {}, max queue depth {}", admitted.sum(), limiter.getRejections(), maxQueueDepth.get());
+        assertThat(maxConcurrent.get()).isLessThanOrEqualTo(4);
+        assertThat(maxQueueDepth.get()).isLessThanOrEqualTo(8);
+        assertThat(admitted.sum() + refused.sum()).isEqualTo(threads * transactionsPerThread);
+        assertThat(admitted.sum()).isEqualTo(limiter.getAdmissions());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from event", Long.class)).isEqualTo(admitted.sum());
+        //nobody waited for the (long) max wait, all refusals are immediate rejections of a full queue
+        assertThat(limiter.getTimeouts()).isZero();
+        assertThat(refused.sum()).isEqualTo(limiter.getRejections()).isPositive();
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void shouldNotAdmitNonTransactionalScope() {
+        DefaultTransactionDefinition supports = new DefaultTransactionDefinition();
+        supports.setPropagationBehaviorName("PROPAGATION_SUPPORTS");
+        TransactionStatus nonTransactional = platformTransactionManager.getTransaction(supports);
+        assertThat(nonTransactional.isNewTransaction()).isFalse();
+        assertThat(writeLimiter.getInFlight()).isZero();
+
+        //the first real transaction of the scope takes the permit
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        assertThat(writeLimiter.getInFlight()).isEqualTo(1);
+        platformTransactionManager.commit(transaction);
+        assertThat(writeLimiter.getInFlight()).isZero();
+
+        platformTransactionManager.commit(nonTransactional);
+        assertThat(writeLimiter.getInFlight()).isZero();
+        assertThat(writeLimiter.getAdmissions()).isEqualTo(1);
+    }
+
+    private void insertInTransaction() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        insert();
+        platformTransactionManager.commit(transaction);
+    }
+
+    private void insert() {
+        long id = ids.incrementAndGet();
+        jdbcTemplate.update("insert into event(id, description) values(?, ?)", id, "desc" + id);
+    }
+
+    private static void awaitQueueDepth(AdmissionLimiter limiter, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueueDepth() < depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(limiter.getQueueDepth()).isEqualTo(depth);
+    }
+}
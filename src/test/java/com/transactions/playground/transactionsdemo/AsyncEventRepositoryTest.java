@@ -0,0 +1,266 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.deadline.Deadline;
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.repo.AsyncEventRepository;
+import com.transactions.playground.transactionsdemo.repo.EventRepo;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AsyncEventRepository runs every operation in its own transaction on the executor, the caller doesn't block
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class AsyncEventRepositoryTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    private AsyncEventRepository asyncEventRepository;
+
+    @Before
+    public void setUp() {
+        asyncEventRepository = new AsyncEventRepository(jdbcEventRepository, platformTransactionManager, 4, 10_000);
+    }
+
+    @After
+    public void tearDown() {
+        asyncEventRepository.destroy();
+    }
+
+    @Test
+    public void shouldSaveEventInOwnTransaction() throws Exception {
+        CompletableFuture<Boolean> transactionActive = asyncEventRepository.writeAsync(repository -> {
+            repository.save(new Event(1L, "descA"));
+            return TransactionSynchronizationManager.isActualTransactionActive();
+        });
+        asyncEventRepository.saveAsync(new Event(2L, "descB")).get(5, TimeUnit.SECONDS);
+
+        assertThat(transactionActive.get(5, TimeUnit.SECONDS)).isTrue();
+        assertEvents(jdbcEventRepository.findAll(), "descA", "descB");
+    }
+
+    @Test
+    public void shouldFindEventsAfterId() throws Exception {
+        jdbcEventRepository.insertAll(events(1, 10));
+
+        List<Event> events = asyncEventRepository.findAfterAsync(3, 4).get(5, TimeUnit.SECONDS);
+
+        assertThat(events).extracting("id").containsExactly(4L, 5L, 6L, 7L);
+    }
+
+    @Test
+    public void shouldStreamAllEventsInBatches() throws Exception {
+        jdbcEventRepository.insertAll(events(1, 25));
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+
+        long streamed = asyncEventRepository.streamAsync(event -> ids.add(event.getId()), 10).get(5, TimeUnit.SECONDS);
+
+        assertThat(streamed).isEqualTo(25);
+        assertThat(ids).hasSize(25).isSorted();
+    }
+
+    @Test
+    public void shouldRunPipelinedReadsConcurrently() throws Exception {
+        CountDownLatch allRunning = new CountDownLatch(3);
+        Function<EventRepo, Boolean> operation = repository -> {
+            allRunning.countDown();
+            //each waits for the others, would time out if they ran one by one
+            return await(allRunning) && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        };
+
+        List<Boolean> results = asyncEventRepository.readPipeline(Arrays.asList(operation, operation, operation)).get(10, TimeUnit.SECONDS);
+
+        assertThat(results).containsExactly(true, true, true);
+    }
+
+    @Test
+    public void shouldRunPipelinedWritesInReadWriteTransactions() throws Exception {
+        List<Function<EventRepo, Boolean>> operations = new ArrayList<>();
+        for (Event event : events(1, 3)) {
+            operations.add(repository -> {
+                repository.save(event);
+                return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+            });
+        }
+
+        List<Boolean> readOnly = asyncEventRepository.writePipeline(operations).get(10, TimeUnit.SECONDS);
+
+        assertThat(readOnly).containsExactly(false, false, false);
+        assertThat(jdbcEventRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldRollbackCancelledTask() throws Exception {
+        CountDownLatch saved = new CountDownLatch(1);
+        CompletableFuture<Event> future = asyncEventRepository.writeAsync(repository -> {
+            Event event = repository.save(new Event(1L, "descA"));
+            saved.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("cancelled", e);
+            }
+            return event;
+        });
+        assertThat(saved.await(5, TimeUnit.SECONDS)).isTrue();
+
+        future.cancel(true);
+
+        assertThat(future).isCancelled();
+        //interrupted task is rolled back, the save is never committed
+        assertThat(asyncEventRepository.readAsync(EventRepo::count).get(5, TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    public void shouldNotLeakTransactionStateBetweenTasks() throws Exception {
+        AsyncEventRepository singleThreaded = new AsyncEventRepository(jdbcEventRepository, platformTransactionManager, 1, 10);
+        try {
+            singleThreaded.writeAsync(repository -> {
+                //e.g. a library binding a resource and never unbinding it
+                TransactionSynchronizationManager.bindResource("leaked", "resource");
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+
+            boolean leaked = singleThreaded.readAsync(repository -> TransactionSynchronizationManager.hasResource("leaked"))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertThat(leaked).isFalse();
+        } finally {
+            singleThreaded.destroy();
+        }
+    }
+
+    @Test
+    public void shouldRejectTasksOverQueueCapacity() throws Exception {
+        AsyncEventRepository singleThreaded = new AsyncEventRepository(jdbcEventRepository, platformTransactionManager, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> running = singleThreaded.readAsync(repository -> {
+                started.countDown();
+                return await(release);
+            });
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<Long> queued = singleThreaded.readAsync(EventRepo::count);
+            CompletableFuture<Long> rejected = singleThreaded.readAsync(EventRepo::count);
+
+            assertThatThrownBy(() -> rejected.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(RejectedExecutionException.class);
+            release.countDown();
+            assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isZero();
+        } finally {
+            singleThreaded.destroy();
+        }
+    }
+
+    @Test
+    public void shouldNotExtendDeadlineByTimeInQueue() throws Exception {
+        AsyncEventRepository singleThreaded = new AsyncEventRepository(jdbcEventRepository, platformTransactionManager, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> running = singleThreaded.readAsync(repository -> {
+                started.countDown();
+                return await(release);
+            });
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<Long> remaining;
+            CompletableFuture<Long> count;
+            try (Deadline.Binding ignored = Deadline.within(100, TimeUnit.MILLISECONDS)) {
+                remaining = singleThreaded.readAsync(repository -> Deadline.remainingNanos());
+                count = singleThreaded.readAsync(EventRepo::count);
+            }
+
+            Thread.sleep(200);
+            release.countDown();
+
+            assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(remaining.get(5, TimeUnit.SECONDS)).isNegative();
+            assertThatThrownBy(() -> count.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(QueryTimeoutException.class);
+        } finally {
+            singleThreaded.destroy();
+        }
+    }
+
+    /**
+     * request thread only submits work, it returns while every executor thread is still busy and nothing is saved yet
+     */
+    @Test
+    public void shouldNotBlockRequestThreads() throws Exception {
+        int threads = 4;
+        CountDownLatch allBusy = new CountDownLatch(threads);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Boolean>> busy = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            busy.add(asyncEventRepository.readAsync(repository -> {
+                allBusy.countDown();
+                return await(release);
+            }));
+        }
+        assertThat(allBusy.await(5, TimeUnit.SECONDS)).isTrue();
+
+        //fails instead of hanging if submitting waited for the database
+        List<CompletableFuture<Event>> saves = CompletableFuture.supplyAsync(() -> {
+            List<CompletableFuture<Event>> futures = new ArrayList<>();
+            for (Event event : events(1, 100)) {
+                futures.add(asyncEventRepository.saveAsync(event));
+            }
+            return futures;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(saves).noneMatch(CompletableFuture::isDone);
+        assertThat(asyncEventRepository.getQueueSize()).isEqualTo(100);
+        assertThat(jdbcEventRepository.count()).isZero();
+
+        release.countDown();
+        CompletableFuture.allOf(busy.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        assertThat(jdbcEventRepository.count()).isEqualTo(100);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.transactions.playground.transactionsdemo;
+
+/**
+ * JUnit category of tests which only log measurements, excluded from the default build, run by {@code mvn test -Pbenchmark}
+ */
+public interface Benchmark {
+}
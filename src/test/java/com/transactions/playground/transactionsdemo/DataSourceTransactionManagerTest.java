@@ -11,11 +11,14 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.UnexpectedRollbackException;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
@@ -23,9 +26,11 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * DataSourceTransactionManager can handle only one datasource
@@ -170,25 +175,23 @@ public class DataSourceTransactionManagerTest extends AbstractManagerTest {
         assertThat(events).isEmpty();
     }
 
+    /**
+     * entity manager is not joined to JDBC transaction and would never be flushed, JPA save fails instead of losing the event.
+     * Like any failure of a participating call it marks the whole transaction rollback only
+     */
     @Test
-    public void shouldCommitOnlyJDBCTransaction() {
+    public void shouldRejectJpaWriteInJDBCTransaction() {
         TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
         Event eventOne = new Event(1L, "descA");
         Event eventTwo = new Event(2L, "descB");
-        jpaEventRepository.save(eventTwo);
+        assertThatThrownBy(() -> jpaEventRepository.save(eventTwo)).isInstanceOf(InvalidDataAccessApiUsageException.class);
         jdbcEventRepository.save(eventOne);
-        platformTransactionManager.commit(transaction);
 
-        List<Event> jdbcEvents = jdbcEventRepository.findAll();
-        assertThat(jdbcEvents).hasSize(1);
-        assertEvents(jdbcEvents, eventOne.getDescription());
+        assertThat(transaction.isRollbackOnly()).isTrue();
+        assertThatThrownBy(() -> platformTransactionManager.commit(transaction)).isInstanceOf(UnexpectedRollbackException.class);
 
-        /*
-         * after commit JPA return entry persisted by JDBC repository
-         */
-        List<Event> jpaEvents = jpaEventRepository.findAll();
-        assertThat(jpaEvents).hasSize(1);
-        assertEvents(jpaEvents, eventOne.getDescription());
+        assertThat(jdbcEventRepository.findAll()).isEmpty();
+        assertThat(jpaEventRepository.findAll()).isEmpty();
     }
 
     @Test
@@ -196,7 +199,7 @@ public class DataSourceTransactionManagerTest extends AbstractManagerTest {
         TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
         Event eventOne = new Event(1L, "descA");
         Event eventTwo = new Event(2L, "descB");
-        jpaEventRepository.save(eventTwo);
+        assertThatThrownBy(() -> jpaEventRepository.save(eventTwo)).isInstanceOf(InvalidDataAccessApiUsageException.class);
         jdbcEventRepository.save(eventOne);
         platformTransactionManager.rollback(transaction);
 
@@ -209,4 +212,38 @@ public class DataSourceTransactionManagerTest extends AbstractManagerTest {
         List<Event> jpaEvents = jpaEventRepository.findAll();
         assertThat(jpaEvents).isEmpty();
     }
+
+    @Test
+    public void shouldUpdateEventSavedWithExistingId() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        jdbcEventRepository.save(new Event(1L, "descAA"));
+
+        List<Event> events = jdbcEventRepository.findAll();
+        assertEvents(events, "descAA");
+    }
+
+    @Test
+    public void shouldUpsertAllInOneTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        jdbcEventRepository.upsertAll(Arrays.asList(new Event(1L, "descAA"), new Event(2L, "descB")));
+        platformTransactionManager.commit(transaction);
+
+        List<Event> events = jdbcEventRepository.findAll();
+        assertEvents(events, "descAA", "descB");
+    }
+
+    @Test
+    public void shouldRollbackInsertAllWithDuplicatedId() {
+        jdbcEventRepository.save(new Event(2L, "descB"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        assertThatThrownBy(() -> jdbcEventRepository.insertAll(Arrays.asList(new Event(1L, "descA"), new Event(2L, "descBB"))))
+                .isInstanceOf(DuplicateKeyException.class);
+        platformTransactionManager.rollback(transaction);
+
+        List<Event> events = jdbcEventRepository.findAll();
+        assertEvents(events, "descB");
+    }
 }
@@ -0,0 +1,243 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.deadline.Deadline;
+import com.transactions.playground.transactionsdemo.deadline.DeadlineDataSource;
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
+import com.transactions.playground.transactionsdemo.profiler.StatementStatistics;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import com.transactions.playground.transactionsdemo.repo.JpaEventRepository;
+import com.transactions.playground.transactionsdemo.repo.SessionEventRepository;
+import org.h2.jdbc.JdbcConnection;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * DeadlineDataSource gives every statement only the time left, slow queries are cancelled on every query path
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class DeadlineTest extends AbstractManagerTest {
+
+    /**
+     * H2 needs seconds to count 10^8 rows
+     */
+    private static final String SLOW_QUERY = "select count(*) from system_range(1, 10000) a, system_range(1, 10000) b";
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager(SessionFactory sessionFactory) {
+            HibernateTransactionManager transactionManager = new HibernateTransactionManager();
+            transactionManager.setSessionFactory(sessionFactory);
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Autowired
+    private SessionEventRepository sessionEventRepository;
+
+    @Autowired
+    private JpaEventRepository jpaEventRepository;
+
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
+    @Test
+    public void shouldCancelSlowJdbcQueryAtDeadline() {
+        long start = System.nanoTime();
+        try (Deadline.Binding ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            assertThatThrownBy(() -> jdbcTemplate.queryForObject(SLOW_QUERY, Long.class))
+                    .isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+        assertThat(deadlineDataSource().getCancelledStatements()).isPositive();
+    }
+
+    @Test
+    public void shouldCancelSlowQueryWhenTransactionTimesOut() {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setTimeout(2);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> jdbcTemplate.queryForObject(SLOW_QUERY, Long.class))
+                .isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(3000);
+
+        platformTransactionManager.rollback(transaction);
+    }
+
+    @Test
+    public void shouldCancelSlowHibernateQueryAtDeadline() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        long start = System.nanoTime();
+        try (Deadline.Binding ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            assertThatThrownBy(() -> sessionFactory.getCurrentSession().createNativeQuery(SLOW_QUERY).getSingleResult())
+                    .isInstanceOf(javax.persistence.QueryTimeoutException.class);
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+
+        platformTransactionManager.rollback(transaction);
+    }
+
+    @Test
+    public void shouldCancelSlowJpaQueryAtDeadline() {
+        long start = System.nanoTime();
+        try (Deadline.Binding ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            assertThatThrownBy(() -> SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory)
+                    .createNativeQuery(SLOW_QUERY).getSingleResult())
+                    .isInstanceOf(javax.persistence.QueryTimeoutException.class);
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+    }
+
+    @Test
+    public void shouldNotExecuteStatementsAfterDeadline() throws InterruptedException {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        sqlProfiler.reset();
+
+        try (Deadline.Binding ignored = Deadline.within(10, TimeUnit.MILLISECONDS)) {
+            Thread.sleep(20);
+            assertThatThrownBy(() -> jdbcEventRepository.count()).isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+            assertThatThrownBy(() -> sessionEventRepository.count()).isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+            assertThatThrownBy(() -> jpaEventRepository.count()).isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+        }
+        platformTransactionManager.rollback(transaction);
+
+        //prepared, never executed
+        assertThat(sqlProfiler.getStatistics()).extracting(StatementStatistics::getExecutions).containsOnly(0L);
+        assertThat(deadlineDataSource().getRejectedStatements()).isGreaterThanOrEqualTo(3);
+        assertThat(jdbcEventRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectStatementWhenTransactionIsOverTime() throws InterruptedException {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setTimeout(1);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+        long rejectedBefore = deadlineDataSource().getRejectedStatements();
+
+        Thread.sleep(1100);
+        //raw connection of the session, no JdbcTemplate or hibernate checking the timeout before
+        assertThatThrownBy(() -> sessionFactory.getCurrentSession().doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeQuery("select 1");
+            }
+        })).hasRootCauseInstanceOf(SQLTimeoutException.class);
+
+        assertThat(deadlineDataSource().getRejectedStatements()).isEqualTo(rejectedBefore + 1);
+        //the exception didn't go through the transaction manager, it was not marked behind its back
+        assertThat(transaction.isRollbackOnly()).isFalse();
+        platformTransactionManager.rollback(transaction);
+    }
+
+    @Test
+    public void shouldRestoreQueryTimeoutOfReusedStatement() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("select 1")) {
+            statement.setQueryTimeout(30);
+            try (Deadline.Binding ignored = Deadline.within(5, TimeUnit.SECONDS)) {
+                statement.executeQuery().close();
+            }
+            assertThat(statement.getQueryTimeout()).isEqualTo(30);
+
+            statement.setQueryTimeout(0);
+            try (Deadline.Binding ignored = Deadline.within(5, TimeUnit.SECONDS)) {
+                statement.executeQuery().close();
+            }
+            assertThat(statement.getQueryTimeout()).isZero();
+
+            assertThat(connection.isWrapperFor(JdbcConnection.class)).isTrue();
+            assertThat(connection.unwrap(JdbcConnection.class)).isNotNull();
+            assertThat(statement.getConnection()).isSameAs(connection);
+        }
+    }
+
+    @Test
+    public void shouldNotExtendOuterDeadline() {
+        try (Deadline.Binding ignored = Deadline.within(100, TimeUnit.MILLISECONDS)) {
+            try (Deadline.Binding ignoredToo = Deadline.within(10, TimeUnit.SECONDS)) {
+                assertThat(Deadline.remainingNanos()).isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            assertThat(Deadline.remainingNanos()).isNotNull();
+        }
+        assertThat(Deadline.remainingNanos()).isNull();
+    }
+
+    @Test
+    public void shouldApplyDefaultTimeout() {
+        DeadlineDataSource deadlineDataSource = deadlineDataSource();
+        deadlineDataSource.setDefaultTimeoutMillis(200);
+        try {
+            assertThatThrownBy(() -> jdbcTemplate.queryForObject(SLOW_QUERY, Long.class))
+                    .isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+        } finally {
+            deadlineDataSource.setDefaultTimeoutMillis(0);
+        }
+    }
+
+    @Test
+    public void shouldApplyDefaultTimeoutOfOperation() {
+        DeadlineDataSource deadlineDataSource = deadlineDataSource();
+        deadlineDataSource.setDefaultQueryTimeoutMillis(200);
+        deadlineDataSource.setDefaultUpdateTimeoutMillis(300);
+        try {
+            assertThatThrownBy(() -> jdbcTemplate.queryForObject(SLOW_QUERY, Long.class))
+                    .isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+            assertThatThrownBy(() -> jdbcTemplate.update("insert into event(id, description) select count(*), 'slow'"
+                    + " from system_range(1, 10000) a, system_range(1, 10000) b"))
+                    .isInstanceOf(org.springframework.dao.QueryTimeoutException.class);
+
+            //budget of queries doesn't limit updates
+            deadlineDataSource.setDefaultQueryTimeoutMillis(1);
+            deadlineDataSource.setDefaultUpdateTimeoutMillis(0);
+            assertThat(jdbcTemplate.update("insert into event(id, description) values(1, 'descA')")).isEqualTo(1);
+        } finally {
+            deadlineDataSource.setDefaultQueryTimeoutMillis(0);
+            deadlineDataSource.setDefaultUpdateTimeoutMillis(0);
+        }
+    }
+
+    private DeadlineDataSource deadlineDataSource() {
+        return (DeadlineDataSource) dataSource;
+    }
+}
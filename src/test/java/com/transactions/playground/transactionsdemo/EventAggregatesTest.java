@@ -0,0 +1,148 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
+import com.transactions.playground.transactionsdemo.profiler.StatementStatistics;
+import com.transactions.playground.transactionsdemo.repo.EventRepo;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import com.transactions.playground.transactionsdemo.repo.JpaEventRepository;
+import com.transactions.playground.transactionsdemo.repo.SessionEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * count, existence and min/max are calculated by database in all repositories, nothing is loaded
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class EventAggregatesTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager(SessionFactory sessionFactory) {
+            HibernateTransactionManager transactionManager = new HibernateTransactionManager();
+            transactionManager.setSessionFactory(sessionFactory);
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Autowired
+    private SessionEventRepository sessionEventRepository;
+
+    @Autowired
+    private JpaEventRepository jpaEventRepository;
+
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
+    @Test
+    public void shouldCalculateAggregatesOfEmptyTable() {
+        forEachRepository(repository -> {
+            assertThat(repository.count()).isZero();
+            assertThat(repository.existsById(1L)).isFalse();
+            assertThat(repository.countByDescriptionPrefix("desc")).isZero();
+            assertThat(repository.findMinId()).isEmpty();
+            assertThat(repository.findMaxId()).isEmpty();
+        });
+    }
+
+    @Test
+    public void shouldCalculateAggregates() {
+        jdbcEventRepository.insertAll(Arrays.asList(
+                new Event(5L, "descA"),
+                new Event(2L, "descB"),
+                new Event(9L, "other"),
+                new Event(7L, "de%cC")));
+
+        forEachRepository(repository -> {
+            assertThat(repository.count()).isEqualTo(4);
+            assertThat(repository.existsById(9L)).isTrue();
+            assertThat(repository.existsById(3L)).isFalse();
+            assertThat(repository.countByDescriptionPrefix("desc")).isEqualTo(2);
+            assertThat(repository.countByDescriptionPrefix("de%")).isEqualTo(1);
+            assertThat(repository.countByDescriptionPrefix("")).isEqualTo(4);
+            assertThat(repository.findMinId()).contains(2L);
+            assertThat(repository.findMaxId()).contains(9L);
+        });
+    }
+
+    @Test
+    public void shouldCountWithoutLoadingEvents() {
+        jdbcEventRepository.insertAll(events(0, 1000));
+        sqlProfiler.reset();
+
+        forEachRepository(repository -> assertThat(repository.count()).isEqualTo(1000));
+        long countRows = sqlProfiler.getStatistics().stream().mapToLong(StatementStatistics::getRows).sum();
+
+        sqlProfiler.reset();
+        forEachRepository(repository -> assertThat(repository.findAll()).hasSize(1000));
+        long findAllRows = sqlProfiler.getStatistics().stream().mapToLong(StatementStatistics::getRows).sum();
+
+        assertThat(countRows).isEqualTo(3);
+        assertThat(findAllRows).isEqualTo(3000);
+    }
+
+    /**
+     * with 100k events counting by the database beats loading the table by far in every repository, logs timings
+     */
+    @Test
+    public void shouldCountFasterThanLoadingAllEvents() {
+        int size = 100_000;
+        jdbcEventRepository.insertAll(events(0, size));
+
+        forEachRepository(repository -> {
+            //warm up
+            repository.count();
+
+            long countStart = System.nanoTime();
+            assertThat(repository.count()).isEqualTo(size);
+            long countNanos = System.nanoTime() - countStart;
+
+            long findAllStart = System.nanoTime();
+            assertThat(repository.findAll()).hasSize(size);
+            long findAllNanos = System.nanoTime() - findAllStart;
+
+            log.info("{}: count of {} events {} us, findAll {} us", AopUtils.getTargetClass(repository).getSimpleName(), size,
+                    TimeUnit.NANOSECONDS.toMicros(countNanos), TimeUnit.NANOSECONDS.toMicros(findAllNanos));
+            assertThat(countNanos).isLessThan(findAllNanos / 10);
+        });
+    }
+
+    /**
+     * session repository needs hibernate transaction
+     */
+    private void forEachRepository(Consumer<EventRepo> assertions) {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        try {
+            for (EventRepo repository : Arrays.<EventRepo>asList(jdbcEventRepository, sessionEventRepository, jpaEventRepository)) {
+                assertions.accept(repository);
+            }
+        } finally {
+            platformTransactionManager.rollback(transaction);
+        }
+    }
+}
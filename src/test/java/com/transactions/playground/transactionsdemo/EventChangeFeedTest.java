@@ -0,0 +1,244 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.changefeed.ChangeTrackingEventRepo;
+import com.transactions.playground.transactionsdemo.changefeed.EventChangeFeed;
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
+import com.transactions.playground.transactionsdemo.profiler.StatementStatistics;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * EventChangeFeed gives consumers only events committed after their offset
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class EventChangeFeedTest extends AbstractManagerTest {
+
+    private static final String DELTA_QUERY = "select id, description from event where id > ? and id <= ? order by id limit ?";
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
+    private EventChangeFeed changeFeed;
+
+    private ChangeTrackingEventRepo repository;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate.update("delete from event_consumer_offset");
+        changeFeed = new EventChangeFeed(jdbcTemplate);
+        repository = new ChangeTrackingEventRepo(jdbcEventRepository, changeFeed);
+    }
+
+    @Test
+    public void shouldDeliverEventsAfterCommittedOffset() throws Exception {
+        repository.insertAll(events(1, 5));
+
+        List<Event> first = changeFeed.poll("consumer", 3, 0, TimeUnit.MILLISECONDS);
+        assertThat(first).extracting("id").containsExactly(1L, 2L, 3L);
+        changeFeed.commitOffset("consumer", 3L);
+
+        //offset is in the database, a new feed (e.g. after restart) continues from it
+        EventChangeFeed restarted = new EventChangeFeed(jdbcTemplate);
+        assertThat(restarted.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(4L, 5L);
+        assertThat(restarted.poll("other", 10, 0, TimeUnit.MILLISECONDS)).hasSize(5);
+    }
+
+    @Test
+    public void shouldHoldBackEventsCommittedBeforeLowerInFlightEvent() throws Exception {
+        repository.save(new Event(1L, "desc1"));
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        CompletableFuture<Void> slowTransaction = CompletableFuture.runAsync(() -> transactionTemplate.execute(status -> {
+            repository.save(new Event(2L, "desc2"));
+            inserted.countDown();
+            await(commit);
+            return null;
+        }));
+        assertThat(inserted.await(5, TimeUnit.SECONDS)).isTrue();
+        //event 3 commits before event 2
+        repository.save(new Event(3L, "desc3"));
+
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(1L);
+        assertThat(changeFeed.getSafeWatermark()).isEqualTo(1L);
+        changeFeed.commitOffset("consumer", 1L);
+
+        commit.countDown();
+        slowTransaction.get(5, TimeUnit.SECONDS);
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void shouldNotSkipEventWhoseIdWasTakenBeforeHigherCommittedOne() throws Exception {
+        repository.insertAll(events(1, 4));
+        CountDownLatch idTaken = new CountDownLatch(1);
+        CountDownLatch insert = new CountDownLatch(1);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        CompletableFuture<Long> slowTransaction = CompletableFuture.supplyAsync(() -> transactionTemplate.execute(status -> {
+            long id = changeFeed.nextId();
+            idTaken.countDown();
+            //not inserted yet
+            await(insert);
+            repository.save(new Event(id, "slow"));
+            return id;
+        }));
+        assertThat(idTaken.await(5, TimeUnit.SECONDS)).isTrue();
+        Long fastId = transactionTemplate.execute(status -> {
+            long id = changeFeed.nextId();
+            repository.save(new Event(id, "fast"));
+            return id;
+        });
+        assertThat(fastId).isEqualTo(6L);
+
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(1L, 2L, 3L, 4L);
+        changeFeed.commitOffset("consumer", 4L);
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).isEmpty();
+
+        insert.countDown();
+        assertThat(slowTransaction.get(5, TimeUnit.SECONDS)).isEqualTo(5L);
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(5L, 6L);
+        assertThat(changeFeed.getSafeWatermark()).isEqualTo(6L);
+    }
+
+    @Test
+    public void shouldMixEventsInsertedWithAndWithoutFeed() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.execute(status -> repository.save(new Event(changeFeed.nextId(), "tracked")));
+        //inserted around the feed, above the last id it has taken
+        jdbcEventRepository.insertAll(events(2, 2));
+
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(1L, 2L, 3L);
+        changeFeed.commitOffset("consumer", 3L);
+
+        //the next id follows them instead of colliding
+        Event tracked = transactionTemplate.execute(status -> repository.save(new Event(changeFeed.nextId(), "tracked")));
+        jdbcEventRepository.save(new Event(5L, "untracked"));
+        assertThat(tracked.getId()).isEqualTo(4L);
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(4L, 5L);
+        Long nextId = transactionTemplate.execute(status -> changeFeed.nextId());
+        assertThat(nextId).isEqualTo(6L);
+    }
+
+    @Test
+    public void shouldReleaseEventsOfRolledBackTransaction() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.execute(status -> {
+            repository.save(new Event(1L, "desc1"));
+            status.setRollbackOnly();
+            return null;
+        });
+        repository.save(new Event(2L, "desc2"));
+
+        assertThat(changeFeed.getSafeWatermark()).isEqualTo(Long.MAX_VALUE);
+        assertThat(changeFeed.poll("consumer", 10, 0, TimeUnit.MILLISECONDS)).extracting("id").containsExactly(2L);
+    }
+
+    @Test
+    public void shouldWakeUpWaitingConsumerOnCommit() throws Exception {
+        CompletableFuture<List<Event>> poll = CompletableFuture.supplyAsync(() -> poll("consumer", 10, 5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertThat(poll).isNotDone();
+
+        long start = System.nanoTime();
+        repository.save(new Event(1L, "desc1"));
+
+        assertThat(poll.get(5, TimeUnit.SECONDS)).extracting("id").containsExactly(1L);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void shouldReturnNothingWhenNoEventIsCommittedWithinTimeout() throws Exception {
+        repository.save(new Event(1L, "desc1"));
+        changeFeed.commitOffset("consumer", 1L);
+        sqlProfiler.reset();
+
+        long start = System.nanoTime();
+        assertThat(changeFeed.poll("consumer", 10, 200, TimeUnit.MILLISECONDS)).isEmpty();
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        //no busy polling, the database is queried once
+        assertThat(sqlProfiler.getStatistics(DELTA_QUERY).getExecutions()).isEqualTo(1);
+    }
+
+    /**
+     * reading the delta costs the same on a small and on a big table, unlike reading everything. Logs timings
+     */
+    @Test
+    public void shouldReadOnlyDelta() throws Exception {
+        int tableSize = 20_000;
+        int delta = 10;
+        repository.insertAll(events(1, tableSize));
+        changeFeed.commitOffset("consumer", tableSize);
+        repository.insertAll(events(tableSize + 1, delta));
+        sqlProfiler.reset();
+
+        long deltaStart = System.nanoTime();
+        List<Event> changes = changeFeed.poll("consumer", 1000, 0, TimeUnit.MILLISECONDS);
+        long deltaNanos = System.nanoTime() - deltaStart;
+
+        long findAllStart = System.nanoTime();
+        List<Event> all = jdbcEventRepository.findAll();
+        long findAllNanos = System.nanoTime() - findAllStart;
+
+        log.info("delta of {} events read in {} us, all {} events in {} us", changes.size(), TimeUnit.NANOSECONDS.toMicros(deltaNanos),
+                all.size(), TimeUnit.NANOSECONDS.toMicros(findAllNanos));
+        assertThat(changes).hasSize(delta);
+        assertThat(sqlProfiler.getStatistics(DELTA_QUERY).getRows()).isEqualTo(delta);
+        assertThat(sqlProfiler.getStatistics()).extracting(StatementStatistics::getRows).contains((long) tableSize + delta);
+    }
+
+    private List<Event> poll(String consumer, int maxEvents, long timeout, TimeUnit unit) {
+        try {
+            return changeFeed.poll(consumer, maxEvents, timeout, unit);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
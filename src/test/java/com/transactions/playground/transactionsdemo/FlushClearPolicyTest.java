@@ -0,0 +1,146 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.repo.FlushClearPolicy;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import com.transactions.playground.transactionsdemo.repo.SessionEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * FlushClearPolicy keeps hibernate session of long write only transaction small
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class FlushClearPolicyTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager(SessionFactory sessionFactory) {
+            HibernateTransactionManager transactionManager = new HibernateTransactionManager();
+            transactionManager.setSessionFactory(sessionFactory);
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private SessionEventRepository sessionEventRepository;
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Autowired
+    private FlushClearPolicy flushClearPolicy;
+
+    @Before
+    public void setUp() {
+        flushClearPolicy.resetStatistics();
+    }
+
+    @After
+    public void restorePolicy() {
+        FlushClearPolicy defaults = new FlushClearPolicy();
+        flushClearPolicy.setFlushEvery(defaults.getFlushEvery());
+        flushClearPolicy.setMaxEstimatedBytes(defaults.getMaxEstimatedBytes());
+    }
+
+    /**
+     * persistence context doesn't grow with the number of inserts, logs flush timings
+     */
+    @Test
+    public void shouldKeepPersistenceContextBoundedInLongWriteTransaction() {
+        int events = 200_000;
+        int chunk = 100;
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        for (long id = 0; id < events; id += chunk) {
+            sessionEventRepository.insertAll(events(id, chunk));
+            assertThat(sessionFactory.getCurrentSession().getStatistics().getEntityCount()).isLessThan(flushClearPolicy.getFlushEvery());
+        }
+        platformTransactionManager.commit(transaction);
+
+        log.info("flushes {}, clears {}, max flush {} ms, total flush time {} ms", flushClearPolicy.getFlushes(), flushClearPolicy.getClears(),
+                flushClearPolicy.getMaxFlushTime(TimeUnit.MILLISECONDS), flushClearPolicy.getTotalFlushTime(TimeUnit.MILLISECONDS));
+        assertThat(flushClearPolicy.getMaxPersistenceContextSize()).isLessThanOrEqualTo(flushClearPolicy.getFlushEvery());
+        assertThat(flushClearPolicy.getFlushes()).isEqualTo(events / flushClearPolicy.getFlushEvery());
+        assertThat(flushClearPolicy.getClears()).isEqualTo(events / flushClearPolicy.getFlushEvery());
+        assertThat(jdbcEventRepository.count()).isEqualTo(events);
+    }
+
+    @Test
+    public void shouldFlushAndClearWhenEstimatedMemoryIsReached() {
+        //descriptions desc100 - desc199 have the same length
+        flushClearPolicy.setMaxEstimatedBytes(10 * (flushClearPolicy.getEstimatedBytesPerEntity() + 4 * "desc100".length()));
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        sessionEventRepository.insertAll(events(100, 100));
+        assertThat(sessionFactory.getCurrentSession().getStatistics().getEntityCount()).isZero();
+
+        platformTransactionManager.commit(transaction);
+        assertThat(flushClearPolicy.getClears()).isEqualTo(10);
+        assertThat(jdbcEventRepository.count()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldNotClearSessionHoldingLoadedEvents() {
+        flushClearPolicy.setFlushEvery(10);
+        jdbcEventRepository.save(new Event(-1L, "descA"));
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        Session session = sessionFactory.getCurrentSession();
+        Event loaded = session.get(Event.class, -1L);
+        sessionEventRepository.insertAll(events(0, 100));
+        loaded.setDescription("changed");
+
+        assertThat(session.contains(loaded)).isTrue();
+        //INSERTs are still flushed every 10 events
+        assertThat(flushClearPolicy.getFlushes()).isEqualTo(10);
+        assertThat(session.getStatistics().getEntityCount()).isEqualTo(101);
+        platformTransactionManager.commit(transaction);
+
+        assertThat(flushClearPolicy.getClears()).isZero();
+        assertThat(jdbcEventRepository.findAfter(-2L, 1)).extracting("description").containsExactly("changed");
+        assertThat(jdbcEventRepository.count()).isEqualTo(101);
+    }
+
+    @Test
+    public void shouldClearOnlyAfterEventsSavedOneByOne() {
+        flushClearPolicy.setFlushEvery(10);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        for (Event event : events(0, 25)) {
+            sessionEventRepository.save(event);
+        }
+
+        assertThat(sessionFactory.getCurrentSession().getStatistics().getEntityCount()).isEqualTo(5);
+        platformTransactionManager.commit(transaction);
+        //the last 5 events are flushed by commit
+        assertThat(flushClearPolicy.getFlushes()).isEqualTo(2);
+        assertThat(flushClearPolicy.getClears()).isEqualTo(2);
+        assertThat(jdbcEventRepository.count()).isEqualTo(25);
+    }
+}
@@ -1,11 +1,18 @@
 package com.transactions.playground.transactionsdemo;
 
+import com.sun.management.ThreadMXBean;
 import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
 import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
 import com.transactions.playground.transactionsdemo.repo.JpaEventRepository;
 import com.transactions.playground.transactionsdemo.repo.SessionEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +20,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.orm.hibernate5.HibernateTransactionManager;
 import org.springframework.orm.hibernate5.SessionFactoryUtils;
+import org.springframework.orm.hibernate5.SessionHolder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -24,12 +33,17 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.TransactionRequiredException;
 import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * HibernateTransactionManager easily handles both JDBC and SessionFactory. All changes using plain SQL or hibernate are registered under the same transaction.
@@ -37,6 +51,7 @@ import static org.assertj.core.api.Assertions.assertThat;
  * However if start handling transaction on lower level e.g. using sessionFactory or connection, changes done using sql or hibernate will not be under same transaction,
  * this is because JDBC in this case is not aware of hibernate and vice versa - two transactions will be registered in TransactionSynchronizationManager
  */
+@Slf4j
 @SpringBootTest
 @RunWith(SpringRunner.class)
 public class HibernateTransactionManagerTest extends AbstractManagerTest {
@@ -63,6 +78,9 @@ public class HibernateTransactionManagerTest extends AbstractManagerTest {
     @Autowired
     private SessionFactory sessionFactory;
 
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
     @Test
     public void shouldRollbackOnlyJDBCTransaction() throws SQLException {
         TransactionSynchronizationManager.initSynchronization();
@@ -73,7 +91,10 @@ public class HibernateTransactionManagerTest extends AbstractManagerTest {
         Event eventOne = new Event(10L, "descAAA");
         Event eventTwo = new Event(22L, "descBFFF");
 
+        //hibernate writes only in its own transaction
+        Transaction hibernateTransaction = sessionFactory.getCurrentSession().beginTransaction();
         sessionEventRepository.save(eventOne);
+        hibernateTransaction.commit();
         jdbcEventRepository.save(eventTwo);
 
         List<Event> events = jdbcEventRepository.findAll();
@@ -93,6 +114,20 @@ public class HibernateTransactionManagerTest extends AbstractManagerTest {
         assertEvents(hibernateEvent, eventOne.getDescription());
     }
 
+    /**
+     * without hibernate transaction the session would never be flushed, the save fails instead of losing the event
+     */
+    @Test
+    public void shouldNotSaveEventThroughSessionWithoutTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertThatThrownBy(() -> sessionEventRepository.save(new Event(10L, "descA")))
+                .isInstanceOf(InvalidDataAccessApiUsageException.class)
+                .hasCauseInstanceOf(TransactionRequiredException.class);
+
+        assertThat(jdbcEventRepository.findAll()).isEmpty();
+    }
+
     @Test
     public void shouldRollbackOnlyHibernateTransaction() {
         TransactionSynchronizationManager.initSynchronization();
@@ -156,4 +191,120 @@ public class HibernateTransactionManagerTest extends AbstractManagerTest {
         List<Event> events = jdbcEventRepository.findAll();
         assertThat(events).isEmpty();
     }
+
+    @Test
+    public void shouldUpsertEventsInHibernateTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        sessionEventRepository.insertAll(Arrays.asList(new Event(2L, "descB"), new Event(3L, "descC")));
+        sessionEventRepository.upsertAll(Arrays.asList(new Event(1L, "descAA"), new Event(4L, "descD")));
+        platformTransactionManager.commit(transaction);
+
+        List<Event> events = jdbcEventRepository.findAll();
+        assertEvents(events, "descAA", "descB", "descC", "descD");
+    }
+
+    @Test
+    public void shouldSkipDirtyCheckingAndFlushInReadOnlyTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        sqlProfiler.reset();
+
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setReadOnly(true);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+
+        Session session = sessionFactory.getCurrentSession();
+        assertThat(session.isDefaultReadOnly()).isTrue();
+        assertThat(session.getHibernateFlushMode()).isEqualTo(FlushMode.MANUAL);
+
+        List<Event> events = sessionEventRepository.findAll();
+        assertThat(session.isReadOnly(events.get(0))).isTrue();
+
+        events.get(0).setDescription("changed");
+        sessionEventRepository.findAll();
+        platformTransactionManager.commit(transaction);
+
+        assertThat(sqlProfiler.getStatistics()).extracting("sql").noneMatch(sql -> ((String) sql).startsWith("update"));
+        assertEvents(jdbcEventRepository.findAll(), "descA");
+    }
+
+    /**
+     * loading (and committing) many events in read write vs read only transaction, logs latency and memory allocated
+     */
+    @Test
+    public void shouldLoadEventsWithLessMemoryAndTimeInReadOnlyTransaction() {
+        //allocated bytes per thread are measured by HotSpot extension of ThreadMXBean
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean
+                && ((ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemoryEnabled());
+        int events = 20_000;
+        jdbcEventRepository.insertAll(events(1, events));
+
+        long[] readWrite = new long[2];
+        long[] readOnly = new long[2];
+        //the first rounds warm up
+        for (int round = 0; round < 3; round++) {
+            readWrite = loadAll(false, events);
+            readOnly = loadAll(true, events);
+        }
+
+        log.info("{} events loaded: read write {} ms, {} KB allocated; read only {} ms, {} KB allocated", events,
+                TimeUnit.NANOSECONDS.toMillis(readWrite[0]), readWrite[1] / 1024,
+                TimeUnit.NANOSECONDS.toMillis(readOnly[0]), readOnly[1] / 1024);
+        assertThat(readOnly[1]).isLessThan(readWrite[1]);
+    }
+
+    /**
+     * HibernateTransactionManager doesn't make session read only if it was opened before transaction (e.g. open session in view)
+     */
+    @Test
+    public void shouldLoadReadOnlyEventsWithSessionOpenedBeforeReadOnlyTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        sqlProfiler.reset();
+
+        Session session = sessionFactory.openSession();
+        TransactionSynchronizationManager.bindResource(sessionFactory, new SessionHolder(session));
+        try {
+            DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+            definition.setReadOnly(true);
+            TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+
+            assertThat(session.isDefaultReadOnly()).isFalse();
+            List<Event> events = sessionEventRepository.findAll();
+            assertThat(session.isReadOnly(events.get(0))).isTrue();
+
+            events.get(0).setDescription("changed");
+            platformTransactionManager.commit(transaction);
+        } finally {
+            TransactionSynchronizationManager.unbindResource(sessionFactory);
+            session.close();
+        }
+
+        assertThat(sqlProfiler.getStatistics()).extracting("sql").noneMatch(sql -> ((String) sql).startsWith("update"));
+        assertEvents(jdbcEventRepository.findAll(), "descA");
+    }
+
+    /**
+     * @return nanos taken by load and commit, bytes allocated by them
+     */
+    private long[] loadAll(boolean readOnly, int expectedEvents) {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setReadOnly(readOnly);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        long start = System.nanoTime();
+        TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+        List<Event> events = sessionEventRepository.findAll();
+        SessionImplementor session = (SessionImplementor) sessionFactory.getCurrentSession();
+        //read only entities have no snapshot of loaded state
+        Object[] loadedState = session.getPersistenceContext().getEntry(events.get(0)).getLoadedState();
+        platformTransactionManager.commit(transaction);
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+
+        assertThat(events).hasSize(expectedEvents);
+        assertThat(loadedState == null).isEqualTo(readOnly);
+        return new long[]{nanos, allocated};
+    }
 }
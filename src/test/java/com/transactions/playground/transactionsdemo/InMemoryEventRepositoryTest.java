@@ -0,0 +1,295 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.repo.EventRepo;
+import com.transactions.playground.transactionsdemo.repo.InMemoryEventRepository;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * InMemoryEventRepository takes part in the transaction as any other resource, changes are visible only after commit
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class InMemoryEventRepositoryTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private InMemoryEventRepository inMemoryEventRepository;
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Before
+    public void setUp() {
+        inMemoryEventRepository.clear();
+    }
+
+    @Test
+    public void shouldSaveEvent() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        inMemoryEventRepository.save(new Event(2L, "descB"));
+
+        //not committed yet
+        assertThat(findAllInAnotherThread()).isEmpty();
+
+        platformTransactionManager.commit(transaction);
+
+        List<Event> events = inMemoryEventRepository.findAll();
+        assertEvents(events, "descB");
+    }
+
+    @Test
+    public void shouldSaveEventWithoutTransaction() {
+        inMemoryEventRepository.save(new Event(2L, "descB"));
+
+        assertEvents(findAllInAnotherThread(), "descB");
+    }
+
+    @Test
+    public void shouldRollbackAllChanges() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        inMemoryEventRepository.save(new Event(2L, "descB"));
+        jdbcEventRepository.save(new Event(3L, "descC"));
+
+        //transaction sees its own changes
+        assertEvents(inMemoryEventRepository.findAll(), "descB");
+
+        platformTransactionManager.rollback(transaction);
+
+        assertThat(inMemoryEventRepository.findAll()).isEmpty();
+        assertThat(jdbcEventRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void shouldCommitTogetherWithJDBC() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        inMemoryEventRepository.save(new Event(2L, "descB"));
+        jdbcEventRepository.save(new Event(3L, "descC"));
+
+        platformTransactionManager.commit(transaction);
+
+        assertEvents(inMemoryEventRepository.findAll(), "descB");
+        assertEvents(jdbcEventRepository.findAll(), "descC");
+    }
+
+    @Test
+    public void shouldSaveEventsInNewTransactions() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        inMemoryEventRepository.save(new Event(2L, "AAAA"));
+
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
+        TransactionStatus newTransaction = platformTransactionManager.getTransaction(definition);
+
+        inMemoryEventRepository.save(new Event(25L, "BBBBB"));
+        //outer transaction is suspended, its changes are not visible
+        assertEvents(inMemoryEventRepository.findAll(), "BBBBB");
+
+        platformTransactionManager.commit(newTransaction);
+        platformTransactionManager.commit(transaction);
+
+        assertEvents(inMemoryEventRepository.findAll(), "AAAA", "BBBBB");
+    }
+
+    @Test
+    public void shouldRollbackOnlyNestedTransaction() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        inMemoryEventRepository.save(new Event(2L, "AAAA"));
+
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
+        TransactionStatus newTransaction = platformTransactionManager.getTransaction(definition);
+
+        inMemoryEventRepository.save(new Event(25L, "BBBBB"));
+
+        platformTransactionManager.rollback(newTransaction);
+        platformTransactionManager.commit(transaction);
+
+        assertEvents(inMemoryEventRepository.findAll(), "AAAA");
+    }
+
+    @Test
+    public void shouldReadSnapshotTakenByTransaction() {
+        inMemoryEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        assertThat(inMemoryEventRepository.count()).isEqualTo(1);
+
+        //committed by another transaction in the meantime
+        CompletableFuture.runAsync(() -> inMemoryEventRepository.upsertAll(
+                Arrays.asList(new Event(1L, "descAA"), new Event(2L, "descB")))).join();
+
+        assertEvents(inMemoryEventRepository.findAll(), "descA");
+        assertThat(inMemoryEventRepository.existsById(2L)).isFalse();
+        platformTransactionManager.commit(transaction);
+
+        assertEvents(inMemoryEventRepository.findAll(), "descAA", "descB");
+    }
+
+    @Test
+    public void shouldFailOnDuplicatedInsert() {
+        inMemoryEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        assertThatThrownBy(() -> inMemoryEventRepository.insertAll(Arrays.asList(new Event(2L, "descB"), new Event(1L, "descAA"))))
+                .isInstanceOf(DuplicateKeyException.class);
+        platformTransactionManager.rollback(transaction);
+
+        assertEvents(inMemoryEventRepository.findAll(), "descA");
+    }
+
+    @Test
+    public void shouldFailOnInsertCommittedByConcurrentTransaction() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        inMemoryEventRepository.insertAll(Arrays.asList(new Event(1L, "descA"), new Event(2L, "descB")));
+
+        //the same id inserted and committed in the meantime, first committer wins
+        CompletableFuture.runAsync(() -> inMemoryEventRepository.insertAll(Arrays.asList(new Event(1L, "descAA")))).join();
+
+        assertThatThrownBy(() -> platformTransactionManager.commit(transaction)).isInstanceOf(DuplicateKeyException.class);
+        assertEvents(inMemoryEventRepository.findAll(), "descAA");
+    }
+
+    @Test
+    public void shouldNotLoseUpdateOfConcurrentTransaction() {
+        inMemoryEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        inMemoryEventRepository.save(new Event(1L, "descAA"));
+        CompletableFuture.runAsync(() -> inMemoryEventRepository.save(new Event(1L, "descAAA"))).join();
+
+        assertThatThrownBy(() -> platformTransactionManager.commit(transaction)).isInstanceOf(OptimisticLockingFailureException.class);
+        assertEvents(inMemoryEventRepository.findAll(), "descAAA");
+
+        //ids are not reserved by the failed transaction any more
+        inMemoryEventRepository.save(new Event(1L, "descB"));
+        assertEvents(inMemoryEventRepository.findAll(), "descB");
+    }
+
+    @Test
+    public void shouldNotLoseUpdateOfEventRemovedByConcurrentTransaction() {
+        inMemoryEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        inMemoryEventRepository.save(new Event(1L, "descAA"));
+        CompletableFuture.runAsync(() -> inMemoryEventRepository.clear()).join();
+
+        assertThatThrownBy(() -> platformTransactionManager.commit(transaction)).isInstanceOf(OptimisticLockingFailureException.class);
+        assertThat(inMemoryEventRepository.findAll()).isEmpty();
+
+        //removed before the snapshot, no conflict
+        TransactionStatus next = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        inMemoryEventRepository.insertAll(Arrays.asList(new Event(1L, "descB")));
+        platformTransactionManager.commit(next);
+        assertEvents(inMemoryEventRepository.findAll(), "descB");
+    }
+
+    @Test
+    public void shouldCalculateAggregatesOverOwnChanges() {
+        inMemoryEventRepository.insertAll(Arrays.asList(new Event(5L, "descA"), new Event(2L, "descB"), new Event(9L, "other")));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        inMemoryEventRepository.upsertAll(Arrays.asList(new Event(1L, "descC"), new Event(9L, "descD"), new Event(12L, "other")));
+
+        assertThat(inMemoryEventRepository.count()).isEqualTo(5);
+        assertThat(inMemoryEventRepository.countByDescriptionPrefix("desc")).isEqualTo(4);
+        assertThat(inMemoryEventRepository.findMinId()).contains(1L);
+        assertThat(inMemoryEventRepository.findMaxId()).contains(12L);
+        assertThat(inMemoryEventRepository.findAfter(2L, 2)).extracting("description").containsExactly("descA", "descD");
+        platformTransactionManager.rollback(transaction);
+    }
+
+    /**
+     * the same reads against in memory and H2 repository return the same, logs timings
+     */
+    @Test
+    public void shouldReadTheSameAsH2() {
+        int events = 20_000;
+        int reads = 500;
+        List<Event> inserted = events(1, events);
+        long inMemoryInsertNanos = time(() -> inMemoryEventRepository.insertAll(inserted));
+        long h2InsertNanos = time(() -> jdbcEventRepository.insertAll(inserted));
+
+        //warm up
+        readRepeatedly(inMemoryEventRepository, reads, events);
+        readRepeatedly(jdbcEventRepository, reads, events);
+        long inMemoryReadNanos = time(() -> readRepeatedly(inMemoryEventRepository, reads, events));
+        long h2ReadNanos = time(() -> readRepeatedly(jdbcEventRepository, reads, events));
+
+        log.info("insert {} events: in memory {} ms, H2 {} ms; {} x (count, min, max, existsById, findAfter): in memory {} ms, H2 {} ms",
+                events, TimeUnit.NANOSECONDS.toMillis(inMemoryInsertNanos), TimeUnit.NANOSECONDS.toMillis(h2InsertNanos),
+                reads, TimeUnit.NANOSECONDS.toMillis(inMemoryReadNanos), TimeUnit.NANOSECONDS.toMillis(h2ReadNanos));
+        assertThat(inMemoryEventRepository.count()).isEqualTo(jdbcEventRepository.count());
+        assertThat(inMemoryEventRepository.findAfter(100, 10)).isEqualTo(jdbcEventRepository.findAfter(100, 10));
+    }
+
+    @Test
+    public void shouldCalculateAggregates() {
+        inMemoryEventRepository.insertAll(Arrays.asList(new Event(5L, "descA"), new Event(2L, "descB"), new Event(9L, "other")));
+
+        assertThat(inMemoryEventRepository.count()).isEqualTo(3);
+        assertThat(inMemoryEventRepository.countByDescriptionPrefix("desc")).isEqualTo(2);
+        assertThat(inMemoryEventRepository.findMinId()).contains(2L);
+        assertThat(inMemoryEventRepository.findMaxId()).contains(9L);
+        assertThat(inMemoryEventRepository.findAll()).extracting("id").containsExactly(2L, 5L, 9L);
+    }
+
+    private List<Event> findAllInAnotherThread() {
+        return CompletableFuture.supplyAsync(inMemoryEventRepository::findAll).join();
+    }
+
+    private static void readRepeatedly(EventRepo repository, int reads, int events) {
+        for (int i = 0; i < reads; i++) {
+            repository.count();
+            repository.findMinId();
+            repository.findMaxId();
+            repository.existsById((long) i * events / reads);
+            repository.findAfter((long) i * events / reads, 10);
+        }
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return System.nanoTime() - start;
+    }
+}
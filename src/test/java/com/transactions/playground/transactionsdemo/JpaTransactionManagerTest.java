@@ -1,30 +1,44 @@
 package com.transactions.playground.transactionsdemo;
 
 import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
+import com.transactions.playground.transactionsdemo.profiler.StatementStatistics;
+import com.transactions.playground.transactionsdemo.repo.FlushClearPolicy;
 import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
 import com.transactions.playground.transactionsdemo.repo.JpaEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * JpaTransactionManager easily handles both JDBC and JPA. All changes are in the same transaction.
  */
+@Slf4j
 @SpringBootTest
 @RunWith(SpringRunner.class)
-public class JpaTransactionManagerTest {
+public class JpaTransactionManagerTest extends AbstractManagerTest {
 
     @Configuration
     static class TestBeanConfiguration extends TestConfig {
@@ -40,15 +54,21 @@ public class JpaTransactionManagerTest {
 
     }
 
-    @Autowired
-    private PlatformTransactionManager platformTransactionManager;
-
     @Autowired
     private JDBCEventRepository jdbcEventRepository;
 
     @Autowired
     private JpaEventRepository jpaEventRepository;
 
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private FlushClearPolicy flushClearPolicy;
+
 
     @Test
     public void shouldSaveEvent() {
@@ -78,6 +98,8 @@ public class JpaTransactionManagerTest {
 
         jdbcEventRepository.save(eventTwo);
         jpaEventRepository.save(eventThree);
+        //INSERT waits for flush, JDBC reads the same connection but doesn't flush the entity manager
+        EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).flush();
 
         List<Event> jdbcEvents = jdbcEventRepository.findAll();
         assertThat(jdbcEvents).hasSize(2);
@@ -93,4 +115,172 @@ public class JpaTransactionManagerTest {
         List<Event> rollbackJpaEvents = jpaEventRepository.findAll();
         assertThat(rollbackJpaEvents).isEmpty();
     }
+
+    @Test
+    public void shouldInsertEventWithAssignedIdWithoutSelect() {
+        sqlProfiler.reset();
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        jpaEventRepository.save(new Event(3L, "descC"));
+
+        platformTransactionManager.commit(transaction);
+
+        assertThat(sqlProfiler.getStatistics()).extracting("sql").noneMatch(sql -> ((String) sql).startsWith("select"));
+        assertThat(jdbcEventRepository.findAll()).extracting("id").containsExactly(3L);
+    }
+
+    /**
+     * every event saved in its own transaction, merge (event not new, as before Persistable) vs persist, logs inserts/s
+     */
+    @Test
+    public void shouldInsertFasterWithoutSelectBeforeInsert() {
+        int events = 2000;
+        //warm up
+        saveInOwnTransactions(-1000, 200, false);
+        saveInOwnTransactions(-500, 200, true);
+
+        sqlProfiler.reset();
+        long mergeNanos = saveInOwnTransactions(0, events, false);
+        long mergeSelects = selectExecutions();
+
+        sqlProfiler.reset();
+        long persistNanos = saveInOwnTransactions(events, events, true);
+        long persistSelects = selectExecutions();
+
+        log.info("merge: {} inserts/s, {} selects; persist: {} inserts/s, {} selects",
+                events * TimeUnit.SECONDS.toNanos(1) / mergeNanos, mergeSelects,
+                events * TimeUnit.SECONDS.toNanos(1) / persistNanos, persistSelects);
+        assertThat(mergeSelects).isEqualTo(events);
+        assertThat(persistSelects).isZero();
+        assertThat(jdbcEventRepository.count()).isEqualTo(2 * events + 400);
+    }
+
+    @Test
+    public void shouldInsertAllInOneTransaction() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+        jpaEventRepository.insertAll(Arrays.asList(new Event(1L, "descA"), new Event(2L, "descB")));
+
+        //INSERTs wait for flush, JDBC sharing the connection doesn't see them before
+        assertThat(jdbcEventRepository.findAll()).isEmpty();
+        EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).flush();
+        assertThat(jdbcEventRepository.findAll()).hasSize(2);
+
+        platformTransactionManager.rollback(transaction);
+
+        assertThat(jpaEventRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void shouldClearPersistenceContextOfLongWriteTransaction() {
+        int flushEvery = flushClearPolicy.getFlushEvery();
+        flushClearPolicy.setFlushEvery(100);
+        flushClearPolicy.resetStatistics();
+        try {
+            TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+            for (long id = 0; id < 500; id += 50) {
+                List<Event> events = new ArrayList<>();
+                for (long eventId = id; eventId < id + 50; eventId++) {
+                    events.add(new Event(eventId, "desc"));
+                }
+                jpaEventRepository.insertAll(events);
+            }
+            Session session = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).unwrap(Session.class);
+            assertThat(session.getStatistics().getEntityCount()).isZero();
+            platformTransactionManager.commit(transaction);
+        } finally {
+            flushClearPolicy.setFlushEvery(flushEvery);
+        }
+
+        assertThat(flushClearPolicy.getClears()).isEqualTo(5);
+        assertThat(flushClearPolicy.getMaxPersistenceContextSize()).isEqualTo(100);
+        assertThat(jdbcEventRepository.count()).isEqualTo(500);
+    }
+
+    @Test
+    public void shouldUpsertExistingAndNewEvents() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        jpaEventRepository.upsertAll(Arrays.asList(new Event(1L, "descAA"), new Event(2L, "descB")));
+        platformTransactionManager.commit(transaction);
+
+        List<Event> events = jpaEventRepository.findAll();
+        assertEvents(events, "descAA", "descB");
+    }
+
+    @Test
+    public void shouldSkipDirtyCheckingAndFlushInReadOnlyTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        sqlProfiler.reset();
+
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setReadOnly(true);
+        TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+
+        Session session = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).unwrap(Session.class);
+        assertThat(session.isDefaultReadOnly()).isTrue();
+
+        List<Event> events = jpaEventRepository.findAll();
+        assertThat(session.isReadOnly(events.get(0))).isTrue();
+
+        events.get(0).setDescription("changed");
+        jpaEventRepository.findAll();
+        platformTransactionManager.commit(transaction);
+
+        assertThat(sqlProfiler.getStatistics()).extracting("sql").noneMatch(sql -> ((String) sql).startsWith("update"));
+        assertEvents(jdbcEventRepository.findAll(), "descA");
+    }
+
+    /**
+     * JpaTransactionManager doesn't make entity manager read only if it was opened before transaction (e.g. open entity manager in view)
+     */
+    @Test
+    public void shouldLoadReadOnlyEventsWithEntityManagerOpenedBeforeReadOnlyTransaction() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        sqlProfiler.reset();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        TransactionSynchronizationManager.bindResource(entityManagerFactory, new EntityManagerHolder(entityManager));
+        try {
+            DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+            definition.setReadOnly(true);
+            TransactionStatus transaction = platformTransactionManager.getTransaction(definition);
+
+            Session session = entityManager.unwrap(Session.class);
+            assertThat(session.isDefaultReadOnly()).isFalse();
+            List<Event> events = jpaEventRepository.findAll();
+            assertThat(session.isReadOnly(events.get(0))).isTrue();
+
+            events.get(0).setDescription("changed");
+            platformTransactionManager.commit(transaction);
+        } finally {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+            entityManager.close();
+        }
+
+        assertThat(sqlProfiler.getStatistics()).extracting("sql").noneMatch(sql -> ((String) sql).startsWith("update"));
+        assertEvents(jdbcEventRepository.findAll(), "descA");
+    }
+
+    private long saveInOwnTransactions(long firstId, int count, boolean asNew) {
+        long start = System.nanoTime();
+        for (long id = firstId; id < firstId + count; id++) {
+            Event event = new Event(id, "desc");
+            if (!asNew) {
+                event.markNotNew();
+            }
+            TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+            jpaEventRepository.save(event);
+            platformTransactionManager.commit(transaction);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long selectExecutions() {
+        return sqlProfiler.getStatistics().stream()
+                .filter(statistics -> statistics.getSql().startsWith("select"))
+                .mapToLong(StatementStatistics::getExecutions)
+                .sum();
+    }
 }
@@ -17,12 +17,14 @@ import org.springframework.core.io.Resource;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
+import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.List;
@@ -100,6 +102,9 @@ public class JpaTransactionManagerWithDataSourcesTest extends AbstractManagerTes
     @Autowired
     private JpaEventRepository jpaEventRepository;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -169,6 +174,8 @@ public class JpaTransactionManagerWithDataSourcesTest extends AbstractManagerTes
         jdbcEventRepository1.save(eventOne);
         jdbcEventRepository2.save(eventTwo);
         jpaEventRepository.save(eventThree);
+        //INSERT waits for flush, JDBC reads the same connection but doesn't flush the entity manager
+        EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).flush();
 
         List<Event> jdbcEvents = jdbcEventRepository1.findAll();
         assertThat(jdbcEvents).hasSize(2);
@@ -0,0 +1,211 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.profiler.ProfilingDataSource;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
+import com.transactions.playground.transactionsdemo.profiler.StatementStatistics;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import com.transactions.playground.transactionsdemo.repo.JpaEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ProfilingDataSource sees every statement regardless of the API used (JdbcTemplate, JPA)
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class SqlProfilerTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return transactionManager;
+        }
+    }
+
+    @Autowired
+    private SqlProfiler sqlProfiler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JDBCEventRepository jdbcEventRepository;
+
+    @Autowired
+    private JpaEventRepository jpaEventRepository;
+
+    @Before
+    public void setUp() {
+        sqlProfiler.reset();
+    }
+
+    @Test
+    public void shouldGroupStatementsDifferingOnlyByLiterals() {
+        jdbcTemplate.update("insert into event(id, description) values(1, 'descA')");
+        jdbcTemplate.update("INSERT INTO event(id, description)   VALUES(2, 'desc''B')");
+
+        StatementStatistics statistics = sqlProfiler.getStatistics("insert into event(id, description) values(?, ?)");
+        assertThat(statistics.getExecutions()).isEqualTo(2);
+        assertThat(statistics.getFailures()).isZero();
+        assertThat(statistics.getPercentileMicros(99)).isPositive();
+    }
+
+    @Test
+    public void shouldCountRowsReturned() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+        jdbcEventRepository.save(new Event(2L, "descB"));
+        jdbcEventRepository.save(new Event(3L, "descC"));
+
+        jdbcEventRepository.findAll();
+        jdbcEventRepository.findAll();
+
+        StatementStatistics statistics = sqlProfiler.getStatistics("select id, description from event");
+        assertThat(statistics.getExecutions()).isEqualTo(2);
+        assertThat(statistics.getRows()).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldProfileJpaStatements() {
+        jdbcEventRepository.save(new Event(1L, "descA"));
+
+        jpaEventRepository.findAll();
+
+        assertThat(sqlProfiler.getStatistics())
+                .filteredOn(statistics -> statistics.getSql().startsWith("select") && statistics.getSql().contains("from event"))
+                .extracting(StatementStatistics::getRows)
+                .contains(1L);
+    }
+
+    @Test
+    public void shouldRecordFailedStatements() {
+        jdbcTemplate.update("insert into event(id, description) values(1, 'descA')");
+        try {
+            jdbcTemplate.update("insert into event(id, description) values(1, 'descA')");
+        } catch (RuntimeException expected) {
+            //duplicated id
+        }
+
+        StatementStatistics statistics = sqlProfiler.getStatistics("insert into event(id, description) values(?, ?)");
+        assertThat(statistics.getExecutions()).isEqualTo(2);
+        assertThat(statistics.getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDetectNPlusOneInTransaction() {
+        TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+        for (long id = 0; id < sqlProfiler.getNPlusOneThreshold() * 2; id++) {
+            jdbcTemplate.queryForList("select description from event where id = " + id);
+        }
+        platformTransactionManager.commit(transaction);
+
+        StatementStatistics statistics = sqlProfiler.getStatistics("select description from event where id = ?");
+        assertThat(statistics.getNPlusOneSuspicions()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotReportNPlusOneAcrossTransactions() {
+        for (long id = 0; id < sqlProfiler.getNPlusOneThreshold() * 2; id++) {
+            TransactionStatus transaction = platformTransactionManager.getTransaction(new DefaultTransactionDefinition());
+            jdbcTemplate.queryForList("select description from event where id = " + id);
+            platformTransactionManager.commit(transaction);
+        }
+
+        StatementStatistics statistics = sqlProfiler.getStatistics("select description from event where id = ?");
+        assertThat(statistics.getExecutions()).isEqualTo(sqlProfiler.getNPlusOneThreshold() * 2);
+        assertThat(statistics.getNPlusOneSuspicions()).isZero();
+    }
+
+    @Test
+    public void shouldCountSlowQueries() {
+        long threshold = sqlProfiler.getSlowQueryThresholdMillis();
+        sqlProfiler.setSlowQueryThresholdMillis(0);
+        try {
+            jdbcEventRepository.findAll();
+        } finally {
+            sqlProfiler.setSlowQueryThresholdMillis(threshold);
+        }
+
+        assertThat(sqlProfiler.getSlowQueries()).isEqualTo(1);
+    }
+
+    /**
+     * the same queries through raw and profiled DataSource (one connection, so only the proxy makes the difference), logs timings.
+     * Rounds alternate between the two, medians are compared - not absolute times, which depend on the machine
+     */
+    @Test
+    public void shouldAddBoundedOverheadPerStatement() {
+        for (long id = 1; id <= 100; id++) {
+            jdbcEventRepository.save(new Event(id, "desc" + id));
+        }
+        SingleConnectionDataSource raw = new SingleConnectionDataSource("jdbc:h2:mem:db;DB_CLOSE_DELAY=-1", "sa", "sa", true);
+        SqlProfiler benchmarkProfiler = new SqlProfiler();
+        int rounds = 7;
+        int queries = 5_000;
+        try {
+            DataSource profiled = new ProfilingDataSource(raw, benchmarkProfiler);
+            //warm up both paths
+            runQueries(raw, queries);
+            runQueries(profiled, queries);
+
+            long[] rawNanos = new long[rounds];
+            long[] profiledNanos = new long[rounds];
+            for (int round = 0; round < rounds; round++) {
+                rawNanos[round] = runQueries(raw, queries);
+                profiledNanos[round] = runQueries(profiled, queries);
+            }
+            long rawMedian = median(rawNanos);
+            long profiledMedian = median(profiledNanos);
+
+            log.info("{} queries: raw {} ms, profiled {} ms (medians of {} rounds), overhead {} ns per statement", queries,
+                    TimeUnit.NANOSECONDS.toMillis(rawMedian), TimeUnit.NANOSECONDS.toMillis(profiledMedian), rounds,
+                    (profiledMedian - rawMedian) / queries);
+            assertThat(benchmarkProfiler.getStatistics("select description from event where id = ?").getExecutions())
+                    .isEqualTo((rounds + 1L) * queries);
+            //proxy and statistics cost less than two in-memory round trips
+            assertThat(profiledMedian).isLessThan(3 * rawMedian);
+        } finally {
+            benchmarkProfiler.destroy();
+            raw.destroy();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long runQueries(DataSource dataSource, int queries) {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            template.queryForObject("select description from event where id = ?", String.class, i % 100 + 1);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,296 @@
+package com.transactions.playground.transactionsdemo;
+
+import com.transactions.playground.transactionsdemo.model.Event;
+import com.transactions.playground.transactionsdemo.repo.JDBCEventRepository;
+import com.transactions.playground.transactionsdemo.tenant.TenantContext;
+import com.transactions.playground.transactionsdemo.tenant.TenantRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.Driver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * TenantRoutingDataSource with DataSourceTransactionManager, every tenant has its own H2 database
+ */
+@Slf4j
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class TenantRoutingDataSourceTest extends AbstractManagerTest {
+
+    @Configuration
+    static class TestBeanConfiguration extends TestConfig {
+
+        @Bean
+        public PlatformTransactionManager transactionManager() {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager();
+            transactionManager.setDataSource(dataSource());
+            return transactionManager;
+        }
+    }
+
+    private static final AtomicInteger testRuns = new AtomicInteger();
+
+    /**
+     * in memory databases outlive their pools, every test has its own ones (dropped after the test)
+     */
+    private final int testRun = testRuns.incrementAndGet();
+
+    /**
+     * pools are created by tenant threads as well
+     */
+    private final List<HikariDataSource> createdPools = new CopyOnWriteArrayList<>();
+
+    private final Set<String> databaseUrls = ConcurrentHashMap.newKeySet();
+
+    private final ResourceDatabasePopulator schema = new ResourceDatabasePopulator(new ClassPathResource("import.sql"));
+
+    private TenantRoutingDataSource tenantDataSource;
+
+    private DataSourceTransactionManager tenantTransactionManager;
+
+    private JDBCEventRepository tenantEventRepository;
+
+    @Before
+    public void setUp() {
+        tenantDataSource = new TenantRoutingDataSource(this::createPool);
+        tenantDataSource.setInitializer(schema::execute);
+        tenantDataSource.setMaxTenants(3);
+        tenantDataSource.afterPropertiesSet();
+        tenantTransactionManager = new DataSourceTransactionManager(tenantDataSource);
+        tenantEventRepository = new JDBCEventRepository(new JdbcTemplate(tenantDataSource));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        tenantDataSource.destroy();
+        for (String url : databaseUrls) {
+            try (Connection connection = DriverManager.getConnection(url, "sa", "sa");
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+        }
+    }
+
+    @Test
+    public void shouldRouteToTenantDatabase() {
+        inTenantTransaction("tenantA", () -> tenantEventRepository.save(new Event(1L, "descA")));
+        inTenantTransaction("tenantB", () -> tenantEventRepository.save(new Event(1L, "descB")));
+
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantA")) {
+            assertEvents(tenantEventRepository.findAll(), "descA");
+        }
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantB")) {
+            assertEvents(tenantEventRepository.findAll(), "descB");
+        }
+        assertThat(TenantContext.getCurrentTenant()).isNull();
+    }
+
+    @Test
+    public void shouldKeepTenantOfTransaction() {
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantA")) {
+            TransactionStatus transaction = tenantTransactionManager.getTransaction(new DefaultTransactionDefinition());
+            try (TenantContext.Binding ignoredToo = TenantContext.bind("tenantB")) {
+                //connection of tenantA is bound to the transaction
+                tenantEventRepository.save(new Event(1L, "descA"));
+            }
+            tenantTransactionManager.commit(transaction);
+            assertEvents(tenantEventRepository.findAll(), "descA");
+        }
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantB")) {
+            assertThat(tenantEventRepository.findAll()).isEmpty();
+        }
+    }
+
+    @Test
+    public void shouldFailWithoutTenant() {
+        assertThatThrownBy(() -> tenantDataSource.getConnection())
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedPool() {
+        for (String tenant : new String[]{"tenantA", "tenantB", "tenantC", "tenantA", "tenantD"}) {
+            inTenantTransaction(tenant, () -> tenantEventRepository.save(new Event(1L, tenant)));
+        }
+
+        assertThat(tenantDataSource.getTenants()).containsExactly("tenantC", "tenantA", "tenantD");
+        assertThat(createdPools.get(1).isClosed()).isTrue();
+        assertThat(tenantDataSource.getEvictedPools()).isEqualTo(1);
+
+        //database outlives its pool
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantB")) {
+            assertEvents(tenantEventRepository.findAll(), "tenantB");
+        }
+        assertThat(tenantDataSource.getCreatedPools()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldNotEvictPoolWithConnectionInUse() {
+        tenantDataSource.setMaxTenants(1);
+        try (TenantContext.Binding ignored = TenantContext.bind("tenantA")) {
+            TransactionStatus transaction = tenantTransactionManager.getTransaction(new DefaultTransactionDefinition());
+
+            CompletableFuture.runAsync(() -> inTenantTransaction("tenantB", () -> tenantEventRepository.save(new Event(1L, "descB")))).join();
+            assertThat(tenantDataSource.getTenants()).containsExactly("tenantA", "tenantB");
+
+            tenantEventRepository.save(new Event(1L, "descA"));
+            tenantTransactionManager.commit(transaction);
+        }
+
+        inTenantTransaction("tenantC", () -> tenantEventRepository.save(new Event(1L, "descC")));
+        assertThat(tenantDataSource.getTenants()).containsExactly("tenantC");
+        assertThat(createdPools).extracting("closed").containsExactly(true, true, false);
+    }
+
+    @Test
+    public void shouldEvictIdlePools() throws InterruptedException {
+        tenantDataSource.setIdleTimeoutMillis(50);
+        inTenantTransaction("tenantA", () -> tenantEventRepository.save(new Event(1L, "descA")));
+        Thread.sleep(100);
+        inTenantTransaction("tenantB", () -> tenantEventRepository.save(new Event(1L, "descB")));
+
+        tenantDataSource.evictIdlePools();
+
+        assertThat(tenantDataSource.getTenants()).containsExactly("tenantB");
+        assertThat(createdPools.get(0).isClosed()).isTrue();
+    }
+
+    @Test
+    public void shouldCloseAllPoolsOnDestroy() {
+        inTenantTransaction("tenantA", () -> tenantEventRepository.save(new Event(1L, "descA")));
+        inTenantTransaction("tenantB", () -> tenantEventRepository.save(new Event(1L, "descB")));
+
+        tenantDataSource.destroy();
+
+        assertThat(tenantDataSource.getTenants()).isEmpty();
+        assertThat(createdPools).extracting("closed").containsOnly(true);
+    }
+
+    /**
+     * many tenants going through a few pools
+     */
+    @Test
+    public void shouldServeManyTenants() {
+        int tenants = 200;
+        tenantDataSource.setMaxTenants(20);
+
+        for (int i = 0; i < tenants; i++) {
+            String tenant = "tenant" + i;
+            inTenantTransaction(tenant, () -> tenantEventRepository.save(new Event(1L, tenant)));
+        }
+        for (int i = 0; i < tenants; i++) {
+            try (TenantContext.Binding ignored = TenantContext.bind("tenant" + i)) {
+                assertEvents(tenantEventRepository.findAll(), "tenant" + i);
+            }
+        }
+        assertThat(tenantDataSource.getTenants()).hasSize(20);
+        assertThat(createdPools.stream().filter(pool -> !pool.isClosed())).hasSize(20);
+    }
+
+    /**
+     * logs routing overhead per connection and memory per open pool
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void shouldMeasureRoutingOverheadAndPoolMemory() throws SQLException {
+        inTenantTransaction("tenant", () -> tenantEventRepository.save(new Event(1L, "tenant")));
+
+        int connections = 20_000;
+        try (TenantContext.Binding ignored = TenantContext.bind("tenant")) {
+            HikariDataSource pool = createdPools.get(createdPools.size() - 1);
+            long direct = timeConnections(pool, connections);
+            long routed = timeConnections(tenantDataSource, connections);
+            log.info("routing overhead per connection {} ns", (routed - direct) / connections);
+        }
+
+        //databases are created first, so that only pools are measured
+        int openPools = 50;
+        long beforeDatabases = usedHeapAfterGc();
+        for (int i = 0; i < openPools; i++) {
+            schema.execute(new SimpleDriverDataSource(new Driver(), databaseUrl("memory" + i), "sa", "sa"));
+        }
+        long beforePools = usedHeapAfterGc();
+        tenantDataSource.setMaxTenants(1 + openPools);
+        for (int i = 0; i < openPools; i++) {
+            inTenantTransaction("memory" + i, () -> tenantEventRepository.count());
+        }
+        long afterPools = usedHeapAfterGc();
+        log.info("memory per tenant pool ~{} KB, per H2 database ~{} KB", (afterPools - beforePools) / openPools / 1024,
+                (beforePools - beforeDatabases) / openPools / 1024);
+    }
+
+    private DataSource createPool(String tenant) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(databaseUrl(tenant));
+        config.setUsername("sa");
+        config.setPassword("sa");
+        config.setMaximumPoolSize(2);
+        config.setMinimumIdle(0);
+        config.setPoolName(tenant);
+        HikariDataSource pool = new HikariDataSource(config);
+        createdPools.add(pool);
+        return pool;
+    }
+
+    private String databaseUrl(String tenant) {
+        String url = "jdbc:h2:mem:" + tenant + "_" + testRun + ";DB_CLOSE_DELAY=-1";
+        databaseUrls.add(url);
+        return url;
+    }
+
+    private void inTenantTransaction(String tenant, Runnable work) {
+        try (TenantContext.Binding ignored = TenantContext.bind(tenant)) {
+            TransactionStatus transaction = tenantTransactionManager.getTransaction(new DefaultTransactionDefinition());
+            work.run();
+            tenantTransactionManager.commit(transaction);
+        }
+    }
+
+    private static long timeConnections(DataSource dataSource, int connections) throws SQLException {
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            try (Connection ignored = dataSource.getConnection()) {
+                //only taken and returned
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,5 +1,8 @@
 package com.transactions.playground.transactionsdemo;
 
+import com.transactions.playground.transactionsdemo.deadline.DeadlineDataSource;
+import com.transactions.playground.transactionsdemo.profiler.ProfilingDataSource;
+import com.transactions.playground.transactionsdemo.profiler.SqlProfiler;
 import org.h2.Driver;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -19,7 +22,7 @@ import java.util.Properties;
 public class TestConfig {
 
     /**
-     * data source used by JDBC, hibernate and JPA
+     * data source used by JDBC, hibernate and JPA, statements get the time left in transaction / deadline
      */
     @Bean
     public DataSource dataSource() {
@@ -29,7 +32,15 @@ public class TestConfig {
         dataSource.setUsername("sa");
         dataSource.setPassword("sa");
 
-        return dataSource;
+        return new DeadlineDataSource(new ProfilingDataSource(dataSource, sqlProfiler()));
+    }
+
+    /**
+     * statement statistics of the dataSource, replaces hibernate.show_sql
+     */
+    @Bean
+    public SqlProfiler sqlProfiler() {
+        return new SqlProfiler();
     }
 
     /**
@@ -63,7 +74,6 @@ public class TestConfig {
         Properties hibernateProperties = new Properties();
         hibernateProperties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
         hibernateProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
-        hibernateProperties.setProperty("hibernate.show_sql", "true");
         return hibernateProperties;
     }
 }